@@ -0,0 +1,96 @@
+package com.tritonsdk;
+
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.facebook.soloader.SoLoader;
+import com.tritondigital.player.TritonPlayer;
+import com.tritonsdk.impl.PlaybackMetrics;
+import com.tritonsdk.impl.Track;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks building the WritableMaps the module hands to JS: a track for every trackChanged event,
+ * and the metrics of a few mounts for getPlaybackMetrics(). They are native maps, so this runs on a
+ * device; a JVM test would only time a stand-in.
+ * <p>
+ * Results go out as instrumentation status, {@code eventMap.<name>.medianNs|p99Ns}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EventMapBenchmark {
+
+    private static final int WARMUP_OPS = 2000;
+    private static final int OPS = 10000;
+    private static final int MOUNTS = 4;
+
+    @Before
+    public void setUp() {
+        SoLoader.init(InstrumentationRegistry.getInstrumentation().getTargetContext(), false);
+    }
+
+    @Test
+    public void trackMap() {
+        final Track[] tracks = new Track[64];
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = new Track("Title " + i, "Artist " + i, 180000);
+            tracks[i].setAlbum("Album " + i);
+            tracks[i].setCoverUrl("https://example.com/cover" + i + ".jpg");
+        }
+        benchmark("track", new Op() {
+            @Override
+            public void run(int i) {
+                RNTritonPlayerModule.toMap(tracks[i % tracks.length]);
+            }
+        });
+    }
+
+    @Test
+    public void metricsMap() {
+        PlaybackMetrics metrics = new PlaybackMetrics();
+        long now = 0;
+        for (int i = 0; i < 10 * MOUNTS; i++) {
+            metrics.onCommand("MOUNT" + i % MOUNTS, "balanced", now);
+            metrics.onStateChanged(TritonPlayer.STATE_CONNECTING, now += 50);
+            metrics.onStateChanged(TritonPlayer.STATE_PLAYING, now += 50 * i);
+        }
+        final Map<String, PlaybackMetrics.MountMetrics> snapshot = metrics.snapshot();
+        assertEquals(MOUNTS, snapshot.size());
+        benchmark("metrics", new Op() {
+            @Override
+            public void run(int i) {
+                RNTritonPlayerModule.toMap(snapshot);
+            }
+        });
+    }
+
+    private static void benchmark(String name, Op op) {
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            op.run(i);
+        }
+        long[] elapsed = new long[OPS];
+        for (int i = 0; i < OPS; i++) {
+            long start = System.nanoTime();
+            op.run(i);
+            elapsed[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(elapsed);
+        Bundle results = new Bundle();
+        results.putLong("eventMap." + name + ".medianNs", elapsed[OPS / 2]);
+        results.putLong("eventMap." + name + ".p99Ns", elapsed[OPS * 99 / 100]);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private interface Op {
+        void run(int i);
+    }
+}
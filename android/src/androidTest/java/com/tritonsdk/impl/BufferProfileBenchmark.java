@@ -0,0 +1,171 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.tritondigital.player.MediaPlayer;
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays a clip through {@link OnDemandPlayer} with each {@link BufferProfile}, served by a local
+ * MockWebServer whose body is throttled to a multiple of the audio's bitrate. Reads go straight to
+ * the server, not through the cache, so every run downloads the whole clip.
+ * <p>
+ * Results go out as instrumentation status, {@code buffer.<network>.<profile>.startupMs|rebuffers|stalledMs}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BufferProfileBenchmark {
+
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BYTES_PER_SECOND = SAMPLE_RATE * 2;
+    private static final int CLIP_SECONDS = 30;
+    private static final long THROTTLE_PERIOD_MS = 100;
+    private static final String[] PROFILES = {BufferProfile.LOW_LATENCY, BufferProfile.BALANCED, BufferProfile.DATA_SAVER};
+
+    private MockWebServer mServer;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Buffer mClip;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mThread = new HandlerThread("BufferProfileBenchmark");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mClip = wav(CLIP_SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mThread.quitSafely();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void fastNetwork() throws Exception {
+        compare("fast", 4.0);
+    }
+
+    @Test
+    public void slowNetwork() throws Exception {
+        compare("slow", 1.1);
+    }
+
+    private void compare(String network, double rate) throws Exception {
+        Bundle results = new Bundle();
+        for (String profile : PROFILES) {
+            Result result = play(profile, (long) (rate * BYTES_PER_SECOND * THROTTLE_PERIOD_MS / 1000));
+            String prefix = "buffer." + network + "." + profile;
+            results.putLong(prefix + ".startupMs", result.startupMs);
+            results.putInt(prefix + ".rebuffers", result.rebuffers);
+            results.putLong(prefix + ".stalledMs", result.stalledMs);
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private Result play(final String profile, long bytesPerPeriod) throws Exception {
+        mServer.enqueue(new MockResponse()
+                .setHeader("Content-Type", "audio/wav")
+                .setBody(mClip.clone())
+                .throttleBody(bytesPerPeriod, THROTTLE_PERIOD_MS, TimeUnit.MILLISECONDS));
+        final String url = mServer.url("/clip.wav").toString();
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final Result result = new Result();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final OnDemandPlayer.Listener listener = new OnDemandPlayer.Listener() {
+            private long mStalledAt;
+
+            @Override
+            public void onStateChanged(OnDemandPlayer player, int state) {
+                if (state == TritonPlayer.STATE_PLAYING && result.startupMs < 0) {
+                    result.startupMs = SystemClock.elapsedRealtime() - result.startedAt;
+                } else if (state == TritonPlayer.STATE_COMPLETED || state == TritonPlayer.STATE_ERROR) {
+                    result.completed = state == TritonPlayer.STATE_COMPLETED;
+                    completed.countDown();
+                }
+            }
+
+            @Override
+            public void onInfo(OnDemandPlayer player, int what) {
+                if (what == MediaPlayer.INFO_BUFFERING_START) {
+                    result.rebuffers++;
+                    mStalledAt = SystemClock.elapsedRealtime();
+                } else if (what == MediaPlayer.INFO_BUFFERING_COMPLETED) {
+                    result.stalledMs += SystemClock.elapsedRealtime() - mStalledAt;
+                }
+            }
+
+            @Override
+            public void onItemChanged(OnDemandPlayer player, int index) {
+            }
+        };
+        final OnDemandPlayer[] player = new OnDemandPlayer[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                player[0] = new OnDemandPlayer(context, mThread.getLooper(), new DefaultHttpDataSource.Factory(),
+                        Collections.singletonList(url), 0, BufferProfile.forName(profile), listener);
+                result.startedAt = SystemClock.elapsedRealtime();
+                player[0].play();
+            }
+        });
+
+        boolean done = completed.await(3 * CLIP_SECONDS, TimeUnit.SECONDS);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (player[0] != null) player[0].release();
+            }
+        });
+        assertTrue(profile + " did not play to the end", done && result.completed);
+        return result;
+    }
+
+    /**
+     * @return a 16-bit mono PCM WAV file of a 440Hz tone
+     */
+    private static Buffer wav(int seconds) {
+        int dataSize = seconds * BYTES_PER_SECOND;
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("RIFF").writeIntLe(36 + dataSize).writeUtf8("WAVE");
+        buffer.writeUtf8("fmt ").writeIntLe(16).writeShortLe(1).writeShortLe(1).writeIntLe(SAMPLE_RATE)
+                .writeIntLe(BYTES_PER_SECOND).writeShortLe(2).writeShortLe(16);
+        buffer.writeUtf8("data").writeIntLe(dataSize);
+        for (int i = 0; i < seconds * SAMPLE_RATE; i++) {
+            buffer.writeShortLe((int) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * 8000));
+        }
+        return buffer;
+    }
+
+    private static final class Result {
+        long startedAt;
+        volatile long startupMs = -1;
+        volatile int rebuffers;
+        volatile long stalledMs;
+        volatile boolean completed;
+    }
+}
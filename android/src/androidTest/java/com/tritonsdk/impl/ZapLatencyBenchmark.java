@@ -0,0 +1,133 @@
+package com.tritonsdk.impl;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.IBinder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.ServiceTestRule;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Zaps back and forth between two live stations on a device, once with a new TritonPlayer for every
+ * zap and once with REUSE_PLAYER, and reports time to first audio from PlaybackMetrics. Needs the
+ * network and two mounts as instrumentation arguments, it is skipped without them:
+ * {@code -e zapMounts MOUNT_A,MOUNT_B}.
+ * <p>
+ * Results go out as instrumentation status, {@code zap.<run>.<histogram>.count|mean|max} in ms, where
+ * timeToFirstAudio covers every zap of the run and timeToFirstAudioReused the ones a parked player served.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZapLatencyBenchmark {
+
+    private static final int ZAPS = 20;
+    private static final long PLAYING_TIMEOUT_MS = 20000;
+    // heard for a moment, as when zapping by hand
+    private static final long DWELL_MS = 3000;
+
+    @Rule
+    public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    private String[] mMounts;
+    private boolean mOriginalReuse;
+    private long mOriginalDebounce;
+    private volatile CountDownLatch mPlaying;
+
+    @Before
+    public void setUp() {
+        String mounts = InstrumentationRegistry.getArguments().getString("zapMounts");
+        assumeTrue("no zapMounts given", mounts != null && mounts.split(",").length >= 2);
+        mMounts = mounts.split(",");
+        mOriginalReuse = PlayerService.REUSE_PLAYER;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        // the debounce would be measured along with the player
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+    }
+
+    @After
+    public void tearDown() {
+        PlayerService.REUSE_PLAYER = mOriginalReuse;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+    }
+
+    @Test
+    public void newPlayers() throws Exception {
+        zap("new", false);
+    }
+
+    @Test
+    public void reusedPlayer() throws Exception {
+        zap("reused", true);
+    }
+
+    private void zap(String run, boolean reuse) throws Exception {
+        PlayerService.REUSE_PLAYER = reuse;
+        Intent intent = new Intent(InstrumentationRegistry.getInstrumentation().getTargetContext(), PlayerService.class);
+        IBinder binder = mServiceRule.bindService(intent);
+        PlayerService service = ((PlayerService.LocalBinder) binder).getService();
+        service.addListener(new PlayerService.OnPlayerEventListener() {
+            @Override
+            public void onStreamChanged(Stream stream) {
+            }
+
+            @Override
+            public void onTrackChanged(Track track) {
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+                CountDownLatch playing = mPlaying;
+                if (state == TritonPlayer.STATE_PLAYING && playing != null) {
+                    playing.countDown();
+                }
+            }
+
+            @Override
+            public void onQueueIndexChanged(int index) {
+            }
+        });
+
+        for (int i = 0; i < ZAPS; i++) {
+            String mount = mMounts[i % 2];
+            mPlaying = new CountDownLatch(1);
+            service.play(new Stream(mount, "", mount, mount));
+            assertTrue(mount + " did not play", mPlaying.await(PLAYING_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Thread.sleep(DWELL_MS);
+        }
+        service.quit();
+
+        Bundle results = new Bundle();
+        report(results, "zap." + run + ".timeToFirstAudio", service, false);
+        report(results, "zap." + run + ".timeToFirstAudioReused", service, true);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static void report(Bundle results, String name, PlayerService service, boolean reused) {
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (PlaybackMetrics.MountMetrics metrics : service.getPlaybackMetrics().values()) {
+            PlaybackMetrics.Histogram histogram = reused ? metrics.timeToFirstAudioReused : metrics.timeToFirstAudio;
+            count += histogram.getCount();
+            sum += histogram.getSum();
+            max = Math.max(max, histogram.getMax());
+        }
+        results.putLong(name + ".count", count);
+        results.putLong(name + ".mean", count > 0 ? sum / count : 0);
+        results.putLong(name + ".max", max);
+    }
+}
@@ -0,0 +1,87 @@
+package com.tritonsdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collapses bursts of player events before they cross the JS bridge. Within one window only the
+ * latest value per event name is kept, and a value equal to the one last emitted for that name is
+ * dropped. Events are flushed in the order their names were first queued in the window.
+ */
+class EventCoalescer {
+
+    interface Emitter {
+        void emit(String eventName, Object value);
+    }
+
+    private final Emitter mEmitter;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Object> mPending = new LinkedHashMap<>();
+    private final Map<String, Object> mLastEmitted = new HashMap<>();
+    private volatile long mWindowMs;
+    private boolean mFlushScheduled;
+
+    EventCoalescer(Emitter emitter, long windowMs) {
+        mEmitter = emitter;
+        mWindowMs = windowMs;
+    }
+
+    void setWindow(long windowMs) {
+        mWindowMs = Math.max(0, windowMs);
+    }
+
+    void submit(String eventName, Object value) {
+        synchronized (this) {
+            mPending.put(eventName, value);
+            if (mWindowMs > 0) {
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mHandler.postDelayed(mFlushRunnable, mWindowMs);
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Forgets what was emitted, so the next value for every event goes through even if unchanged.
+     */
+    synchronized void reset() {
+        mLastEmitted.clear();
+    }
+
+    private void flush() {
+        Object[] names;
+        Object[] values;
+        synchronized (this) {
+            mFlushScheduled = false;
+            names = mPending.keySet().toArray();
+            values = mPending.values().toArray();
+            mPending.clear();
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            String eventName = (String) names[i];
+            synchronized (this) {
+                if (mLastEmitted.containsKey(eventName) && Objects.equals(mLastEmitted.get(eventName), values[i])) {
+                    continue;
+                }
+                mLastEmitted.put(eventName, values[i]);
+            }
+            mEmitter.emit(eventName, values[i]);
+        }
+    }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+}
@@ -0,0 +1,129 @@
+package com.tritonsdk;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import androidx.annotation.Nullable;
+
+import com.tritonsdk.impl.PlayerService;
+
+import java.util.ArrayDeque;
+
+import static android.content.Context.BIND_AUTO_CREATE;
+
+/**
+ * Binds to PlayerService once and runs commands against it over the binder. Commands issued
+ * before the connection is up are queued and replayed in order as soon as it is.
+ */
+class PlayerConnection {
+
+    interface Command {
+        void run(PlayerService service);
+    }
+
+    interface OnConnectedListener {
+        void onConnected(PlayerService service);
+
+        void onDisconnected(PlayerService service);
+    }
+
+    private final Context mContext;
+    private final OnConnectedListener mListener;
+    private final ArrayDeque<Command> mPending = new ArrayDeque<>();
+
+    private PlayerService mService;
+    private boolean mBinding;
+
+    PlayerConnection(Context context, OnConnectedListener listener) {
+        mContext = context;
+        mListener = listener;
+    }
+
+    /**
+     * Runs the command now if the service is connected, otherwise binds (once) and queues it.
+     */
+    void run(Command command) {
+        PlayerService service;
+        synchronized (this) {
+            service = mService;
+            if (service == null) {
+                mPending.add(command);
+                bind();
+                return;
+            }
+        }
+        command.run(service);
+    }
+
+    /**
+     * Like {@link #run(Command)}, but dropped instead of queued when the service is not connected.
+     */
+    void runIfConnected(Command command) {
+        PlayerService service = getService();
+        if (service != null) {
+            command.run(service);
+        }
+    }
+
+    @Nullable
+    synchronized PlayerService getService() {
+        return mService;
+    }
+
+    synchronized void unbind() {
+        mPending.clear();
+        if (mBinding) {
+            mBinding = false;
+            if (mService != null) {
+                mListener.onDisconnected(mService);
+                mService = null;
+            }
+            mContext.unbindService(mServiceConnection);
+        }
+    }
+
+    private void bind() {
+        if (mBinding) return;
+        mBinding = true;
+
+        Intent intent = new Intent(mContext, PlayerService.class);
+        intent.setAction(PlayerService.ACTION_INIT);
+        mContext.bindService(intent, mServiceConnection, BIND_AUTO_CREATE);
+        // also start it, so playback outlives the binding
+        mContext.startService(intent);
+    }
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            PlayerService service = ((PlayerService.LocalBinder) binder).getService();
+            mListener.onConnected(service);
+
+            while (true) {
+                Command command;
+                synchronized (PlayerConnection.this) {
+                    command = mPending.poll();
+                    if (command == null) {
+                        mService = service;
+                        return;
+                    }
+                }
+                command.run(service);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            PlayerService service;
+            synchronized (PlayerConnection.this) {
+                service = mService;
+                mService = null;
+            }
+            if (service != null) {
+                mListener.onDisconnected(service);
+            }
+        }
+    };
+}
@@ -1,42 +1,78 @@
 
 package com.tritonsdk;
 
-import android.content.BroadcastReceiver;
-import android.content.ComponentName;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.ServiceConnection;
-import android.os.IBinder;
+import android.os.SystemClock;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.tritonsdk.impl.NowPlayingService;
+import com.tritonsdk.impl.PlaybackMetrics;
 import com.tritonsdk.impl.PlayerService;
+import com.tritonsdk.impl.StationCatalog;
 import com.tritonsdk.impl.Stream;
 import com.tritonsdk.impl.Track;
+import com.tritonsdk.impl.TrackHistory;
 import com.tritonsdk.impl.OnDemandStream;
+import com.tritondigital.player.TritonPlayer;
 
-import static android.content.Context.BIND_AUTO_CREATE;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class RNTritonPlayerModule extends ReactContextBaseJavaModule {
     private static final String EVENT_TRACK_CHANGED = "trackChanged";
     private static final String EVENT_STATE_CHANGED = "stateChanged";
     private static final String EVENT_STREAM_CHANGED = "streamChanged";
+    private static final String EVENT_QUEUE_INDEX_CHANGED = "queueIndexChanged";
+    private static final String EVENT_NOW_PLAYING_CHANGED = "nowPlayingChanged";
+    // about one frame, long enough to fold a connecting/buffering burst into its final state
+    private static final long DEFAULT_EVENT_WINDOW_MS = 16;
 
     private final ReactApplicationContext reactContext;
+    private final PlayerConnection mConnection;
 
-    private PlayerService mService;
-    private boolean mServiceBound;
+    // Created by the first subscribeNowPlaying()
+    private NowPlayingService mNowPlaying;
+
+    // JS play call -> STATE_CONNECTING, including PlayerService.ZAP_DEBOUNCE_MS for stations. A play
+    // that reaches PLAYING, ERROR or STOPPED without connecting (a standby or parked player) is not measured.
+    private volatile long mPlayRequestedAt;
+    private volatile long mLastTimeToConnecting = -1;
+
+    private final EventCoalescer mEventCoalescer = new EventCoalescer(new EventCoalescer.Emitter() {
+        @Override
+        public void emit(String eventName, Object value) {
+            switch (eventName) {
+                case EVENT_STREAM_CHANGED:
+                    emitStreamChanged((String) value);
+                    break;
+                case EVENT_STATE_CHANGED:
+                    emitStateChanged((Integer) value);
+                    break;
+                case EVENT_TRACK_CHANGED:
+                    emitTrackChanged((Track) value);
+                    break;
+                case EVENT_QUEUE_INDEX_CHANGED:
+                    emitQueueIndexChanged((Integer) value);
+                    break;
+            }
+        }
+    }, DEFAULT_EVENT_WINDOW_MS);
 
     public RNTritonPlayerModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
-        registerReceiver();
+        this.mConnection = new PlayerConnection(reactContext, mOnConnectedListener);
     }
 
     @Override
@@ -44,82 +80,375 @@ public class RNTritonPlayerModule extends ReactContextBaseJavaModule {
         return "RNTritonPlayer";
     }
 
-    private void initPlayer() {
-        if (!mServiceBound) {
-            Intent intent = new Intent(reactContext, PlayerService.class);
-            intent.setAction(PlayerService.ACTION_INIT);
-            reactContext.bindService(intent, mServiceConnection, BIND_AUTO_CREATE);
-            reactContext.startService(intent);
+    @ReactMethod
+    public void configure(String brand) {
+        PlayerService.BRAND = brand;
+    }
+
+    @ReactMethod
+    public void setReusePlayer(boolean reuse) {
+        PlayerService.REUSE_PLAYER = reuse;
+    }
+
+    @ReactMethod
+    public void setEventCoalescingWindow(int windowMs) {
+        mEventCoalescer.setWindow(windowMs);
+    }
+
+    @ReactMethod
+    public void setBroadcastEvents(boolean broadcast) {
+        PlayerService.BROADCAST_EVENTS = broadcast;
+    }
+
+    @ReactMethod
+    public void setBufferProfile(String bufferProfile) {
+        PlayerService.BUFFER_PROFILE = bufferProfile;
+    }
+
+    @ReactMethod
+    public void setZapDebounce(int debounceMs) {
+        PlayerService.ZAP_DEBOUNCE_MS = debounceMs;
+    }
+
+    @ReactMethod
+    public void setResumeAfterRestart(boolean resume) {
+        PlayerService.RESUME_AFTER_RESTART = resume;
+    }
+
+    @ReactMethod
+    public void setTimeShift(boolean timeShift, double maxMs) {
+        PlayerService.TIME_SHIFT = timeShift;
+        if (maxMs > 0) {
+            PlayerService.TIME_SHIFT_MAX_MS = (long) maxMs;
         }
     }
 
     @ReactMethod
-    public void configure(String brand) {
-        PlayerService.BRAND = brand;
+    public void setAutoReconnect(boolean autoReconnect) {
+        PlayerService.AUTO_RECONNECT = autoReconnect;
     }
 
     @ReactMethod
-    public void play(String tritonName, String tritonMount) {
-        initPlayer();
+    public void play(String tritonName, String tritonMount, @Nullable final String bufferProfile) {
+        mPlayRequestedAt = SystemClock.elapsedRealtime();
+        final Stream stream = new Stream("", "", tritonName, tritonMount);
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.play(stream, bufferProfile);
+            }
+        });
+    }
 
-        if (mService != null) {
-            mService.stop();
+    /**
+     * Replaces the native station catalog with maps of title, description, tritonName, tritonMount and active.
+     */
+    @ReactMethod
+    public void setStations(ReadableArray stations) {
+        List<Stream> catalog = new ArrayList<>(stations.size());
+        for (int i = 0; i < stations.size(); i++) {
+            ReadableMap station = stations.getMap(i);
+            if (station == null || !station.hasKey("tritonMount")) continue;
+            catalog.add(new Stream(getString(station, "title"), getString(station, "description"),
+                    getString(station, "tritonName"), station.getString("tritonMount"),
+                    station.hasKey("active") && station.getBoolean("active")));
         }
+        StationCatalog.get(reactContext).setStations(catalog);
+    }
+
+    @ReactMethod
+    public void playStation(final String tritonMount, @Nullable final String bufferProfile) {
+        mPlayRequestedAt = SystemClock.elapsedRealtime();
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.playStation(tritonMount, bufferProfile);
+            }
+        });
+    }
 
-        Intent intent = new Intent(reactContext, PlayerService.class);
-        intent.setAction(PlayerService.ACTION_PLAY);
-        intent.putExtra(PlayerService.ARG_STREAM, new Stream("", "", tritonName, tritonMount));
-        reactContext.bindService(intent, mServiceConnection, BIND_AUTO_CREATE);
-        reactContext.startService(intent);
+    @Nullable
+    private static String getString(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
     }
 
     @ReactMethod
-    public void playOnDemandStream(String streamURL) {
-        initPlayer();
+    public void playOnDemandStream(String streamURL, @Nullable final String bufferProfile) {
+        mPlayRequestedAt = SystemClock.elapsedRealtime();
+        final OnDemandStream onDemandStream = new OnDemandStream(streamURL);
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.playOnDemandStream(onDemandStream, bufferProfile);
+            }
+        });
+    }
 
-        if (mService != null) {
-            mService.stop();
+    @ReactMethod
+    public void setQueue(ReadableArray streamURLs, int startIndex, @Nullable final String bufferProfile) {
+        mPlayRequestedAt = SystemClock.elapsedRealtime();
+        final List<OnDemandStream> queue = new ArrayList<>(streamURLs.size());
+        for (int i = 0; i < streamURLs.size(); i++) {
+            queue.add(new OnDemandStream(streamURLs.getString(i)));
         }
+        final int index = startIndex;
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.setQueue(queue, index, bufferProfile);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void skipNext() {
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.skipNext();
+            }
+        });
+    }
+
+    @ReactMethod
+    public void skipPrevious() {
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.skipPrevious();
+            }
+        });
+    }
+
+    @ReactMethod
+    public void prewarm(String tritonName, String tritonMount) {
+        final Stream stream = new Stream("", "", tritonName, tritonMount);
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.prewarm(stream);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void seekTo(final double positionMs) {
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.seekTo((long) positionMs);
+            }
+        });
+    }
 
-        Intent intent = new Intent(reactContext, PlayerService.class);
-        intent.setAction(PlayerService.ACTION_PLAY);
-        intent.putExtra(PlayerService.ARG_ON_DEMAND_STREAM, new OnDemandStream(streamURL));
-        reactContext.bindService(intent, mServiceConnection, BIND_AUTO_CREATE);
-        reactContext.startService(intent);
+    @ReactMethod
+    public void getPosition(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        PlayerService service = mConnection.getService();
+        map.putDouble("position", service != null ? service.getPosition() : -1);
+        map.putDouble("duration", service != null ? service.getDuration() : -1);
+        map.putBoolean("seekable", service != null && service.isSeekable());
+        map.putBoolean("timeShifted", service != null && service.isTimeShifted());
+        map.putDouble("behindLive", service != null ? service.getBehindLiveMs() : 0);
+        promise.resolve(map);
+    }
+
+    @ReactMethod
+    public void jumpToLive() {
+        mConnection.runIfConnected(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.jumpToLive();
+            }
+        });
+    }
+
+    @ReactMethod
+    public void prefetchOnDemand(final String url, final double bytes) {
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.prefetchOnDemand(url, (long) bytes);
+            }
+        });
     }
 
     @ReactMethod
     public void pause() {
-        if (mService != null) {
-            mService.pause();
-        }
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.pause();
+            }
+        });
     }
 
     @ReactMethod
     public void unPause() {
-        if (mService != null) {
-            mService.unPause();
-        }
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.unPause();
+            }
+        });
     }
 
     @ReactMethod
     public void stop() {
-        if (mService != null) {
-            mService.stop();
-        }
+        mConnection.run(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.stop();
+            }
+        });
     }
 
    @ReactMethod
     public void setNotificationStatus(boolean status) {
-        if (mService != null) {
-            mService.IS_NOTIF_ACTIVE = status
+        PlayerService.IS_NOTIF_ACTIVE = status;
+    }
+
+    /**
+     * Keeps the current track of these mounts coming through nowPlayingChanged events, without playing
+     * them. Replaces the previous subscription, an empty array stops it.
+     */
+    @ReactMethod
+    public synchronized void subscribeNowPlaying(ReadableArray tritonMounts) {
+        List<String> mounts = new ArrayList<>(tritonMounts.size());
+        for (int i = 0; i < tritonMounts.size(); i++) {
+            mounts.add(tritonMounts.getString(i));
+        }
+        if (mNowPlaying == null) {
+            if (mounts.isEmpty()) return;
+            mNowPlaying = new NowPlayingService(mNowPlayingListener);
+        }
+        mNowPlaying.subscribe(mounts);
+    }
+
+    private final NowPlayingService.Listener mNowPlayingListener = new NowPlayingService.Listener() {
+        @Override
+        public void onNowPlayingChanged(Map<String, Track> changes) {
+            WritableMap map = Arguments.createMap();
+            for (Map.Entry<String, Track> entry : changes.entrySet()) {
+                if (entry.getValue() != null) {
+                    map.putMap(entry.getKey(), toMap(entry.getValue()));
+                } else {
+                    map.putNull(entry.getKey());
+                }
+            }
+            sendEvent(EVENT_NOW_PLAYING_CHANGED, map);
+        }
+    };
+
+    @ReactMethod
+    public void getRecentTracks(@Nullable String tritonMount, Promise promise) {
+        WritableArray tracks = Arguments.createArray();
+        PlayerService service = mConnection.getService();
+        if (service != null) {
+            for (TrackHistory.Entry entry : service.getTrackHistory(tritonMount)) {
+                WritableMap map = Arguments.createMap();
+                map.putString("artist", entry.getArtist());
+                map.putString("title", entry.getTitle());
+                map.putInt("duration", entry.getDuration());
+                map.putDouble("playedAt", entry.getPlayedAt());
+                tracks.pushMap(map);
+            }
+        }
+        promise.resolve(tracks);
+    }
+
+    @ReactMethod
+    public void getNotificationStats(Promise promise) {
+        WritableMap map = Arguments.createMap();
+        PlayerService service = mConnection.getService();
+        int[] stats = service != null ? service.getNotificationStats() : new int[2];
+        map.putInt("notified", stats[0]);
+        map.putInt("skipped", stats[1]);
+        promise.resolve(map);
+    }
+
+    @ReactMethod
+    public void getTimeToConnecting(Promise promise) {
+        promise.resolve((double) mLastTimeToConnecting);
+    }
+
+    @ReactMethod
+    public void getPlaybackMetrics(Promise promise) {
+        PlayerService service = mConnection.getService();
+        promise.resolve(toMap(service != null ? service.getPlaybackMetrics() : null));
+    }
+
+    @ReactMethod
+    public void getBufferProfileMetrics(Promise promise) {
+        PlayerService service = mConnection.getService();
+        promise.resolve(toMap(service != null ? service.getBufferProfileMetrics() : null));
+    }
+
+    @VisibleForTesting
+    static WritableMap toMap(@Nullable Map<String, PlaybackMetrics.MountMetrics> metricsByKey) {
+        WritableMap map = Arguments.createMap();
+        if (metricsByKey == null) return map;
+
+        for (Map.Entry<String, PlaybackMetrics.MountMetrics> entry : metricsByKey.entrySet()) {
+            PlaybackMetrics.MountMetrics metrics = entry.getValue();
+            WritableMap mount = Arguments.createMap();
+            mount.putInt("plays", metrics.plays);
+            mount.putInt("reusedPlays", metrics.reusedPlays);
+            mount.putInt("rebuffers", metrics.rebuffers);
+            mount.putInt("errors", metrics.errors);
+            mount.putInt("reconnects", metrics.reconnects);
+            mount.putInt("reconnectFailures", metrics.reconnectFailures);
+            mount.putInt("focusLosses", metrics.focusLosses);
+            mount.putInt("reconnectsAvoided", metrics.reconnectsAvoided);
+            mount.putInt("duplicateMetadata", metrics.duplicateMetadata);
+            mount.putMap("commandToConnecting", toMap(metrics.commandToConnecting));
+            mount.putMap("connectingToPlaying", toMap(metrics.connectingToPlaying));
+            mount.putMap("timeToFirstAudio", toMap(metrics.timeToFirstAudio));
+            mount.putMap("timeToFirstAudioReused", toMap(metrics.timeToFirstAudioReused));
+            mount.putMap("rebufferTime", toMap(metrics.rebufferTime));
+            mount.putMap("reconnectTime", toMap(metrics.reconnectTime));
+            map.putMap(entry.getKey(), mount);
+        }
+        return map;
+    }
+
+    private static WritableMap toMap(PlaybackMetrics.Histogram histogram) {
+        WritableArray bounds = Arguments.createArray();
+        for (long bound : histogram.getBounds()) {
+            bounds.pushDouble(bound);
         }
+        WritableArray counts = Arguments.createArray();
+        for (long count : histogram.getCounts()) {
+            counts.pushDouble(count);
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putArray("bounds", bounds);
+        map.putArray("counts", counts);
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("sum", histogram.getSum());
+        map.putDouble("max", histogram.getMax());
+        return map;
     }
 
     @ReactMethod
     public void quit() {
-        if (mService != null) {
-            mService.quit();
+        mConnection.runIfConnected(new PlayerConnection.Command() {
+            @Override
+            public void run(PlayerService service) {
+                service.quit();
+            }
+        });
+    }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
+        mConnection.unbind();
+        synchronized (this) {
+            if (mNowPlaying != null) {
+                mNowPlaying.release();
+                mNowPlaying = null;
+            }
         }
     }
 
@@ -131,77 +460,113 @@ public class RNTritonPlayerModule extends ReactContextBaseJavaModule {
     }
 
     private void onStreamChanged(Stream stream) {
+        mEventCoalescer.submit(EVENT_STREAM_CHANGED, stream.getTritonMount());
+    }
+
+    private void onStateChanged(int state) {
+        mEventCoalescer.submit(EVENT_STATE_CHANGED, state);
+    }
+
+    private void onTrackChanged(Track track) {
+        mEventCoalescer.submit(EVENT_TRACK_CHANGED, track);
+    }
+
+    private void onQueueIndexChanged(int index) {
+        mEventCoalescer.submit(EVENT_QUEUE_INDEX_CHANGED, index);
+    }
+
+    private void emitQueueIndexChanged(int index) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("index", index);
+
+        sendEvent(EVENT_QUEUE_INDEX_CHANGED, map);
+    }
+
+    private void emitStreamChanged(String mount) {
         WritableMap map = Arguments.createMap();
-        map.putString("stream", stream.getTritonMount());
+        map.putString("stream", mount);
 
         sendEvent(EVENT_STREAM_CHANGED, map);
     }
 
-    private void onStateChanged(int state) {
+    private void emitStateChanged(int state) {
         WritableMap map = Arguments.createMap();
         map.putInt("state", state);
 
         sendEvent(EVENT_STATE_CHANGED, map);
     }
 
-    private void onTrackChanged(Track track) {
+    private void emitTrackChanged(Track track) {
+        sendEvent(EVENT_TRACK_CHANGED, toMap(track));
+    }
+
+    @VisibleForTesting
+    static WritableMap toMap(@Nullable Track track) {
         WritableMap map = Arguments.createMap();
         map.putString("artist", track != null ? track.getArtist() : "-");
         map.putString("title", track != null ? track.getTitle() : "-");
         map.putInt("duration", track != null ? track.getDuration() : 0);
         map.putBoolean("isAd", track != null && track.isAds());
-
-        sendEvent(EVENT_TRACK_CHANGED, map);
+        map.putString("album", track != null ? track.getAlbum() : null);
+        map.putString("coverUrl", track != null ? track.getCoverUrl() : null);
+        map.putDouble("startedAt", track != null ? track.getStartedAt() : 0);
+        return map;
     }
 
-    private ServiceConnection mServiceConnection = new ServiceConnection() {
+    private final PlayerConnection.OnConnectedListener mOnConnectedListener = new PlayerConnection.OnConnectedListener() {
         @Override
-        public void onServiceConnected(ComponentName name, IBinder binder) {
-            mServiceBound = true;
-            mService = ((PlayerService.LocalBinder) binder).getService();
+        public void onConnected(PlayerService service) {
+            service.addListener(mPlayerEventListener);
+            // always replay the current state to a (re)connected module
+            mEventCoalescer.reset();
 
-            if (mService.getCurrentStream() != null) {
-                onStreamChanged(mService.getCurrentStream());
+            if (service.getCurrentStream() != null) {
+                onStreamChanged(service.getCurrentStream());
             }
-            if (mService.getCurrentTrack() != null) {
-                onTrackChanged(mService.getCurrentTrack());
+            if (service.getCurrentTrack() != null) {
+                onTrackChanged(service.getCurrentTrack());
+            }
+            if (service.getQueueIndex() >= 0) {
+                onQueueIndexChanged(service.getQueueIndex());
             }
 
-            onStateChanged(mService.getState());
+            onStateChanged(service.getState());
         }
 
         @Override
-        public void onServiceDisconnected(ComponentName name) {
-            mServiceBound = false;
+        public void onDisconnected(PlayerService service) {
+            service.removeListener(mPlayerEventListener);
         }
     };
 
-    private void registerReceiver() {
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(PlayerService.EVENT_TRACK_CHANGED);
-        filter.addAction(PlayerService.EVENT_STREAM_CHANGED);
-        filter.addAction(PlayerService.EVENT_STATE_CHANGED);
-        reactContext.registerReceiver(mReceiver, filter);
-    }
+    private PlayerService.OnPlayerEventListener mPlayerEventListener = new PlayerService.OnPlayerEventListener() {
+        @Override
+        public void onStreamChanged(Stream stream) {
+            RNTritonPlayerModule.this.onStreamChanged(stream);
+        }
 
-    private BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent == null || intent.getAction() == null) return;
+        public void onTrackChanged(Track track) {
+            RNTritonPlayerModule.this.onTrackChanged(track);
+        }
 
-            switch (intent.getAction()) {
-                case PlayerService.EVENT_TRACK_CHANGED:
-                    Track track = (Track) intent.getSerializableExtra(PlayerService.ARG_TRACK);
-                    onTrackChanged(track);
-                    break;
-                case PlayerService.EVENT_STREAM_CHANGED:
-                    Stream stream = (Stream) intent.getSerializableExtra(PlayerService.ARG_STREAM);
-                    onStreamChanged(stream);
-                    break;
-                case PlayerService.EVENT_STATE_CHANGED:
-                    int state = intent.getIntExtra(PlayerService.ARG_STATE, -1);
-                    onStateChanged(state);
+        @Override
+        public void onStateChanged(int state) {
+            long requestedAt = mPlayRequestedAt;
+            if (state == TritonPlayer.STATE_CONNECTING && requestedAt != 0) {
+                mPlayRequestedAt = 0;
+                mLastTimeToConnecting = SystemClock.elapsedRealtime() - requestedAt;
+            } else if (state == TritonPlayer.STATE_PLAYING || state == TritonPlayer.STATE_ERROR
+                    || state == TritonPlayer.STATE_STOPPED) {
+                // or a later reconnect would be timed from this request
+                mPlayRequestedAt = 0;
             }
+            RNTritonPlayerModule.this.onStateChanged(state);
+        }
+
+        @Override
+        public void onQueueIndexChanged(int index) {
+            RNTritonPlayerModule.this.onQueueIndexChanged(index);
         }
     };
 
@@ -0,0 +1,252 @@
+package com.tritonsdk.impl;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Loads cover art for the notification. Images are decoded downsampled to the requested size and
+ * kept in a two-level LRU cache: decoded bitmaps in memory and the downloaded bytes on disk.
+ * Concurrent requests for the same URL share one download, and URLs that failed are not retried
+ * until they fall out of the small failure list.
+ */
+class ArtworkLoader {
+
+    interface Callback {
+        void onArtworkLoaded(String url, Bitmap bitmap);
+    }
+
+    private static final String TAG = "ArtworkLoader";
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final long DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final int MAX_FAILED_URLS = 32;
+    private static final int TIMEOUT_MS = 10000;
+
+    private final File mDiskDir;
+    private final int mTargetSize;
+    private final Handler mCallbackHandler;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+
+    private final LruCache<String, Bitmap> mMemoryCache = new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    // url -> callbacks waiting for the same download
+    private final Map<String, List<Callback>> mInFlight = new HashMap<>();
+    private final LinkedHashSet<String> mFailed = new LinkedHashSet<>();
+
+    ArtworkLoader(File diskDir, int targetSize, Handler callbackHandler) {
+        mDiskDir = diskDir;
+        mTargetSize = targetSize;
+        mCallbackHandler = callbackHandler;
+    }
+
+    Bitmap getCached(String url) {
+        return mMemoryCache.get(url);
+    }
+
+    /**
+     * Loads the image in the background. The callback runs on the callback handler and only on success.
+     * Requests after {@link #shutdown()} are dropped.
+     */
+    void load(final String url, Callback callback) {
+        if (url == null || mExecutor.isShutdown()) return;
+
+        final Bitmap cached = mMemoryCache.get(url);
+        if (cached != null) {
+            final Callback hit = callback;
+            mCallbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    hit.onArtworkLoaded(url, cached);
+                }
+            });
+            return;
+        }
+
+        synchronized (this) {
+            if (mFailed.contains(url)) return;
+            List<Callback> waiting = mInFlight.get(url);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            mInFlight.put(url, waiting);
+        }
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final Bitmap bitmap = fetch(url);
+                    final List<Callback> callbacks;
+                    synchronized (ArtworkLoader.this) {
+                        callbacks = mInFlight.remove(url);
+                        if (bitmap == null) {
+                            mFailed.add(url);
+                            if (mFailed.size() > MAX_FAILED_URLS) {
+                                mFailed.remove(mFailed.iterator().next());
+                            }
+                        }
+                    }
+                    if (bitmap == null || callbacks == null) return;
+
+                    mMemoryCache.put(url, bitmap);
+                    mCallbackHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Callback callback : callbacks) {
+                                callback.onArtworkLoaded(url, bitmap);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down since the check above
+            synchronized (this) {
+                mInFlight.remove(url);
+            }
+        }
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+        mMemoryCache.evictAll();
+    }
+
+    private Bitmap fetch(String url) {
+        File file = new File(mDiskDir, key(url));
+        try {
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                download(url, file);
+                trimDiskCache();
+            }
+            return decode(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load artwork " + url, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void download(String url, File file) throws IOException {
+        if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+            throw new IOException("Could not create " + mDiskDir);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        File tmp = new File(mDiskDir, file.getName() + ".tmp");
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not move " + tmp);
+            }
+        } finally {
+            connection.disconnect();
+            tmp.delete();
+        }
+    }
+
+    private Bitmap decode(File file) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mTargetSize && options.outHeight / (sampleSize * 2) >= mTargetSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + file);
+        }
+        return bitmap;
+    }
+
+    private void trimDiskCache() {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_BYTES) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_BYTES) break;
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes());
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.tritonsdk.impl;
+
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.os.Handler;
+
+import com.tritondigital.player.MediaPlayer;
+
+/**
+ * Decides what losing audio focus does to playback. A live stream that pauses has to reconnect when
+ * it resumes, so short losses (a navigation prompt, a notification sound) only duck or mute it and
+ * keep the connection open; on-demand items pause, which costs nothing to resume. Only a permanent
+ * loss, or a transient one that lasts longer than {@link #MAX_MUTED_MS}, stops a live stream.
+ * <p>
+ * Holds one {@link AudioFocusRequest} for the life of the service. Focus changes arrive on the handler
+ * it is given, which must be the one of the thread it is used from.
+ */
+class AudioFocusPolicy implements AudioManager.OnAudioFocusChangeListener {
+
+    interface Target {
+        /**
+         * @return true when the current media is a live stream, which would have to reconnect after a pause
+         */
+        boolean isLive();
+
+        void setVolume(float volume);
+
+        void pause();
+
+        void resume();
+
+        void onFocusLoss();
+
+        /**
+         * A transient loss ended without the live stream being paused.
+         */
+        void onReconnectAvoided();
+    }
+
+    // A live stream muted for longer than this is paused, rather than keep downloading unheard audio
+    static final long MAX_MUTED_MS = 60000;
+
+    private static final int HOLD_NONE = 0;
+    private static final int HOLD_DUCKED = 1;
+    private static final int HOLD_MUTED = 2;
+    private static final int HOLD_PAUSED = 3;
+
+    private final AudioManager mAudioManager;
+    private final Handler mHandler;
+    private final Target mTarget;
+    private final AudioFocusRequest mFocusRequest;
+
+    private boolean mHasFocus;
+    // What was done to playback for the current loss, undone when focus comes back
+    private int mHold = HOLD_NONE;
+
+    AudioFocusPolicy(AudioManager audioManager, Handler handler, Target target) {
+        mAudioManager = audioManager;
+        mHandler = handler;
+        mTarget = target;
+        mFocusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build())
+                // ducking is done here, so a live stream is not paused by the system instead
+                .setWillPauseWhenDucked(false)
+                .setOnAudioFocusChangeListener(this, handler)
+                .build();
+    }
+
+    /**
+     * Asks for focus before playback starts. A play the user asked for overrides whatever an earlier
+     * loss left in place.
+     *
+     * @return false when playback must not start
+     */
+    boolean request() {
+        clearHold();
+        if (mAudioManager == null) return false;
+        mHasFocus = mAudioManager.requestAudioFocus(mFocusRequest) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        return mHasFocus;
+    }
+
+    /**
+     * Called when playback ended or paused. Focus is kept while paused for a transient loss, or the
+     * gain that resumes playback would never arrive.
+     */
+    void abandon() {
+        if (mHold == HOLD_PAUSED) return;
+        clearHold();
+        abandonFocus();
+    }
+
+    /**
+     * Called when the user paused or stopped, so a later gain does not resume behind their back.
+     */
+    void reset() {
+        clearHold();
+        abandonFocus();
+    }
+
+    /**
+     * @return the volume playback should have right now, for players that come up during a loss
+     */
+    float getVolume() {
+        switch (mHold) {
+            case HOLD_DUCKED:
+                return MediaPlayer.VOLUME_DUCK;
+            case HOLD_MUTED:
+                return MediaPlayer.VOLUME_MUTE;
+            default:
+                return MediaPlayer.VOLUME_NORMAL;
+        }
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_LOSS:
+                mHasFocus = false;
+                mTarget.onFocusLoss();
+                mTarget.pause();
+                clearHold();
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+                if (mHold == HOLD_MUTED || mHold == HOLD_PAUSED) return;
+                mTarget.onFocusLoss();
+                if (mTarget.isLive()) {
+                    mHold = HOLD_MUTED;
+                    mTarget.setVolume(MediaPlayer.VOLUME_MUTE);
+                    mHandler.postDelayed(mMutedTooLongRunnable, MAX_MUTED_MS);
+                } else {
+                    mHold = HOLD_PAUSED;
+                    mTarget.pause();
+                }
+                break;
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+                if (mHold != HOLD_NONE) return;
+                mHold = HOLD_DUCKED;
+                mTarget.setVolume(MediaPlayer.VOLUME_DUCK);
+                break;
+            case AudioManager.AUDIOFOCUS_GAIN:
+                int hold = clearHold();
+                if (hold == HOLD_PAUSED) {
+                    mTarget.resume();
+                } else if (hold == HOLD_MUTED) {
+                    mTarget.onReconnectAvoided();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Undoes the current hold's volume change, a paused player is left to whoever resumes it.
+     *
+     * @return the hold that was in place
+     */
+    private int clearHold() {
+        mHandler.removeCallbacks(mMutedTooLongRunnable);
+        int hold = mHold;
+        mHold = HOLD_NONE;
+        if (hold == HOLD_DUCKED || hold == HOLD_MUTED) {
+            mTarget.setVolume(MediaPlayer.VOLUME_NORMAL);
+        }
+        return hold;
+    }
+
+    private void abandonFocus() {
+        if (!mHasFocus || mAudioManager == null) return;
+        mHasFocus = false;
+        mAudioManager.abandonAudioFocusRequest(mFocusRequest);
+    }
+
+    private final Runnable mMutedTooLongRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mHold != HOLD_MUTED) return;
+            mHold = HOLD_PAUSED;
+            mTarget.pause();
+        }
+    };
+}
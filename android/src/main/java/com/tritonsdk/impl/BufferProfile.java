@@ -0,0 +1,85 @@
+package com.tritonsdk.impl;
+
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.LoadControl;
+
+/**
+ * Named trade-offs between startup latency, rebuffer risk and data use.
+ * <p>
+ * On-demand items get the full set through ExoPlayer's load control. TritonPlayer only takes a
+ * target delay for live streams, so that is all a profile changes there.
+ */
+public class BufferProfile {
+
+    public static final String LOW_LATENCY = "lowLatency";
+    public static final String BALANCED = "balanced";
+    public static final String DATA_SAVER = "dataSaver";
+
+    // Starts on half a second of audio and keeps little ahead, a rebuffer is more likely
+    private static final BufferProfile sLowLatency = new BufferProfile(LOW_LATENCY, 500, 1500, 5000, 15000, 2);
+    // The defaults; the live delay is left to the SDK
+    private static final BufferProfile sBalanced = new BufferProfile(BALANCED, 1000, 2500, 15000, 50000, 0);
+    // Waits for more audio before starting, but never reads far ahead of what is played
+    private static final BufferProfile sDataSaver = new BufferProfile(DATA_SAVER, 2500, 5000, 10000, 20000, 10);
+
+    private final String name;
+    private final int bufferForPlaybackMs;
+    private final int bufferForPlaybackAfterRebufferMs;
+    private final int minBufferMs;
+    private final int maxBufferMs;
+    private final int liveDelaySeconds;
+
+    private BufferProfile(String name, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int minBufferMs,
+                          int maxBufferMs, int liveDelaySeconds) {
+        this.name = name;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
+        this.bufferForPlaybackAfterRebufferMs = bufferForPlaybackAfterRebufferMs;
+        this.minBufferMs = minBufferMs;
+        this.maxBufferMs = maxBufferMs;
+        this.liveDelaySeconds = liveDelaySeconds;
+    }
+
+    /**
+     * @return the profile with this name, the balanced one for null or unknown names
+     */
+    public static BufferProfile forName(String name) {
+        if (LOW_LATENCY.equals(name)) return sLowLatency;
+        if (DATA_SAVER.equals(name)) return sDataSaver;
+        return sBalanced;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Buffered audio needed before playback starts
+     */
+    public int getBufferForPlaybackMs() {
+        return bufferForPlaybackMs;
+    }
+
+    /**
+     * Buffered audio needed before playback resumes after a rebuffer
+     */
+    public int getBufferForPlaybackAfterRebufferMs() {
+        return bufferForPlaybackAfterRebufferMs;
+    }
+
+    public int getMaxBufferMs() {
+        return maxBufferMs;
+    }
+
+    /**
+     * @return the value for TritonPlayer.SETTINGS_LOW_DELAY: seconds of delay, 0 for the SDK's automatic choice
+     */
+    public int getLiveDelaySeconds() {
+        return liveDelaySeconds;
+    }
+
+    LoadControl buildLoadControl() {
+        return new DefaultLoadControl.Builder()
+                .setBufferDurationsMs(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs)
+                .build();
+    }
+}
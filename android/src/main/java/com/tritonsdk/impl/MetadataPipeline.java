@@ -0,0 +1,158 @@
+package com.tritonsdk.impl;
+
+import android.os.Bundle;
+
+import com.tritondigital.player.CuePoint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns cue points and stream metadata into {@link Track}s, once per actual change. Stations resend
+ * the current cue, and stream metadata repeats on every interval, so each update is fingerprinted
+ * and one that matches the current track is dropped before anything is allocated. Artist, title and
+ * album strings are interned, so a song that comes round again shares the strings already held by
+ * the history and earlier tracks.
+ * <p>
+ * Cue points win over stream metadata: once a stream sent a track cue, its metadata is ignored.
+ * Must be used from one thread.
+ */
+class MetadataPipeline {
+
+    private static final int MAX_INTERNED = 256;
+    // ICY style "Artist - Title"
+    private static final String STREAM_TITLE_SEPARATOR = " - ";
+
+    private static final String[] TITLE_KEYS = {"title", "Title", "TIT2"};
+    private static final String[] ARTIST_KEYS = {"artist", "Artist", "TPE1"};
+    private static final String[] ALBUM_KEYS = {"album", "Album", "TALB"};
+    private static final String[] STREAM_TITLE_KEYS = {"StreamTitle", "streamTitle"};
+
+    private final Map<String, String> mInterned = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_INTERNED;
+        }
+    };
+
+    private Track mCurrent;
+    private int mFingerprint;
+    private boolean mHasTrackCues;
+    private boolean mDuplicate;
+
+    /**
+     * Forgets the current track, e.g. on a station switch, so the next update is reported even if it is the same song.
+     */
+    void reset() {
+        mCurrent = null;
+        mHasTrackCues = false;
+    }
+
+    /**
+     * @return the new track, or null when the cue is not about a track or ad or nothing changed
+     */
+    Track onCuePoint(Bundle cuePoint) {
+        mDuplicate = false;
+        String type = cuePoint.getString(CuePoint.CUE_TYPE);
+        if (CuePoint.CUE_TYPE_VALUE_AD.equals(type)) {
+            return update(true, null, null, null, null, 0, 0);
+        }
+        if (!CuePoint.CUE_TYPE_VALUE_TRACK.equals(type)) return null;
+
+        String title = cuePoint.getString(CuePoint.CUE_TITLE);
+        String artist = cuePoint.getString(CuePoint.TRACK_ARTIST_NAME);
+        if (title == null || artist == null) return null;
+        mHasTrackCues = true;
+        return update(false, title, artist, cuePoint.getString(CuePoint.TRACK_ALBUM_NAME),
+                cuePoint.getString(CuePoint.TRACK_COVER_URL), cuePoint.getInt(CuePoint.CUE_TIME_DURATION, 0),
+                cuePoint.getLong(CuePoint.CUE_START_TIMESTAMP, 0));
+    }
+
+    /**
+     * @return the new track, or null when the metadata names no track, nothing changed or the stream has cue points
+     */
+    Track onMetaData(Bundle metaData) {
+        mDuplicate = false;
+        if (mHasTrackCues) return null;
+
+        String title = getString(metaData, TITLE_KEYS);
+        String artist = getString(metaData, ARTIST_KEYS);
+        if (title == null) {
+            String streamTitle = getString(metaData, STREAM_TITLE_KEYS);
+            if (streamTitle == null) return null;
+            int separator = streamTitle.indexOf(STREAM_TITLE_SEPARATOR);
+            if (separator > 0) {
+                artist = streamTitle.substring(0, separator).trim();
+                title = streamTitle.substring(separator + STREAM_TITLE_SEPARATOR.length()).trim();
+            } else {
+                title = streamTitle.trim();
+            }
+        }
+        if (title.isEmpty()) return null;
+        return update(false, title, artist, getString(metaData, ALBUM_KEYS), null, 0, 0);
+    }
+
+    /**
+     * @return whether the last update was dropped as a resend of the current track
+     */
+    boolean wasDuplicate() {
+        return mDuplicate;
+    }
+
+    private Track update(boolean ad, String title, String artist, String album, String coverUrl, int duration, long startedAt) {
+        // timing is left out, a resent cue for the same song is not a change
+        int fingerprint = ad ? 1 : 0;
+        fingerprint = 31 * fingerprint + hash(title);
+        fingerprint = 31 * fingerprint + hash(artist);
+        fingerprint = 31 * fingerprint + hash(album);
+        fingerprint = 31 * fingerprint + hash(coverUrl);
+        if (mCurrent != null && fingerprint == mFingerprint && isCurrent(ad, title, artist, album, coverUrl)) {
+            mDuplicate = true;
+            return null;
+        }
+
+        Track track = ad ? new Track(true) : new Track(intern(title), intern(artist), duration);
+        track.setAlbum(intern(album));
+        track.setCoverUrl(coverUrl);
+        track.setStartedAt(startedAt);
+        mCurrent = track;
+        mFingerprint = fingerprint;
+        return track;
+    }
+
+    private boolean isCurrent(boolean ad, String title, String artist, String album, String coverUrl) {
+        return mCurrent.isAds() == ad
+                && equals(mCurrent.getTitle(), title)
+                && equals(mCurrent.getArtist(), artist)
+                && equals(mCurrent.getAlbum(), album)
+                && equals(mCurrent.getCoverUrl(), coverUrl);
+    }
+
+    private String intern(String value) {
+        if (value == null) return null;
+        String interned = mInterned.get(value);
+        if (interned == null) {
+            mInterned.put(value, value);
+            return value;
+        }
+        return interned;
+    }
+
+    private static String getString(Bundle bundle, String[] keys) {
+        for (String key : keys) {
+            Object value = bundle.get(key);
+            if (value instanceof String && !((String) value).isEmpty()) {
+                return (String) value;
+            }
+        }
+        return null;
+    }
+
+    private static int hash(String value) {
+        return value != null ? value.hashCode() : 0;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
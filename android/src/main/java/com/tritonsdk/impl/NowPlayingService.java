@@ -0,0 +1,293 @@
+package com.tritonsdk.impl;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Xml;
+
+import com.tritondigital.player.CuePoint;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the current track of many mounts up to date without playing them, from Triton's now-playing
+ * history endpoint. Results are cached for {@link #TTL_MS}; a mount is refetched once its entry
+ * expires and only while it is subscribed. At most {@link #MAX_CONCURRENT_REQUESTS} requests run at
+ * a time, the rest wait their turn, and a mount that is already being fetched is not requested again.
+ * Changes are collected and reported in batches, only for mounts whose track actually changed.
+ * <p>
+ * State lives on its own thread; the listener is called there.
+ */
+public class NowPlayingService {
+
+    public interface Listener {
+        /**
+         * @param changes mount -> new track, null when the mount reports no track anymore
+         */
+        void onNowPlayingChanged(Map<String, Track> changes);
+    }
+
+    public static final long TTL_MS = 30000;
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+    // Changes go out this long after the first one, with whatever arrived in the meantime
+    static final long BATCH_WINDOW_MS = 100;
+    // Point at a stand-in server to develop against, mountName and the other parameters are appended
+    public static String ENDPOINT = "https://np.tritondigital.com/public/nowplaying";
+
+    private static final String TAG = "NowPlayingService";
+    private static final int TIMEOUT_MS = 10000;
+
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+
+    // Only touched on mThread
+    private final Set<String> mSubscribed = new LinkedHashSet<>();
+    private final Map<String, Entry> mCache = new HashMap<>();
+    private final Set<String> mInFlight = new HashSet<>();
+    private final ArrayDeque<String> mWaiting = new ArrayDeque<>();
+    private final Map<String, Track> mChanges = new LinkedHashMap<>();
+    private boolean mFlushScheduled;
+    private boolean mReleased;
+
+    public NowPlayingService(Listener listener) {
+        mListener = listener;
+        mThread = new HandlerThread("TritonNowPlaying");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Replaces the subscribed mounts. Tracks already cached for new mounts are reported right away,
+     * an empty collection stops all fetching.
+     */
+    public void subscribe(Collection<String> mounts) {
+        final Set<String> subscribed = new LinkedHashSet<>(mounts);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (String mount : subscribed) {
+                    Entry entry = mCache.get(mount);
+                    if (!mSubscribed.contains(mount) && entry != null && entry.track != null) {
+                        mChanges.put(mount, entry.track);
+                    }
+                }
+                mSubscribed.clear();
+                mSubscribed.addAll(subscribed);
+                mWaiting.retainAll(mSubscribed);
+                mChanges.keySet().retainAll(mSubscribed);
+                // unsubscribed mounts stay cached until they expire, a list scrolled back shows them at once
+                long now = SystemClock.elapsedRealtime();
+                Iterator<Map.Entry<String, Entry>> it = mCache.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Entry> cached = it.next();
+                    if (!mSubscribed.contains(cached.getKey()) && now - cached.getValue().fetchedAt >= TTL_MS) {
+                        it.remove();
+                    }
+                }
+                scheduleFlush();
+                refresh();
+            }
+        });
+    }
+
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mReleased = true;
+                mHandler.removeCallbacksAndMessages(null);
+                mExecutor.shutdownNow();
+                mThread.quitSafely();
+            }
+        });
+    }
+
+    /**
+     * Queues every subscribed mount whose entry expired, then schedules itself for the next expiry.
+     */
+    private void refresh() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        if (mReleased || mSubscribed.isEmpty()) return;
+
+        long now = SystemClock.elapsedRealtime();
+        long nextExpiry = Long.MAX_VALUE;
+        for (String mount : mSubscribed) {
+            Entry entry = mCache.get(mount);
+            if (entry != null && now - entry.fetchedAt < TTL_MS) {
+                nextExpiry = Math.min(nextExpiry, entry.fetchedAt + TTL_MS);
+            } else if (!mInFlight.contains(mount) && !mWaiting.contains(mount)) {
+                mWaiting.add(mount);
+            }
+        }
+        startWaiting();
+        if (nextExpiry != Long.MAX_VALUE) {
+            mHandler.postDelayed(mRefreshRunnable, nextExpiry - now);
+        }
+    }
+
+    private void startWaiting() {
+        while (mInFlight.size() < MAX_CONCURRENT_REQUESTS && !mWaiting.isEmpty()) {
+            final String mount = mWaiting.poll();
+            mInFlight.add(mount);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Track track = null;
+                    boolean failed = false;
+                    try {
+                        track = fetch(mount);
+                    } catch (IOException | XmlPullParserException e) {
+                        Log.w(TAG, "Could not fetch now playing for " + mount, e);
+                        failed = true;
+                    }
+                    onFetched(mount, track, failed);
+                }
+            });
+        }
+    }
+
+    private void onFetched(final String mount, final Track track, final boolean failed) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mInFlight.remove(mount);
+                if (mReleased) return;
+                if (mSubscribed.contains(mount)) {
+                    Entry entry = mCache.get(mount);
+                    if (entry == null) {
+                        entry = new Entry();
+                        mCache.put(mount, entry);
+                    }
+                    // a failure keeps the last known track and retries after the TTL like a success
+                    entry.fetchedAt = SystemClock.elapsedRealtime();
+                    if (!failed && !(track == null ? entry.track == null : track.equals(entry.track))) {
+                        entry.track = track;
+                        mChanges.put(mount, track);
+                        scheduleFlush();
+                    }
+                }
+                startWaiting();
+                refresh();
+            }
+        });
+    }
+
+    private void scheduleFlush() {
+        if (mChanges.isEmpty() || mFlushScheduled) return;
+        mFlushScheduled = true;
+        mHandler.postDelayed(mFlushRunnable, BATCH_WINDOW_MS);
+    }
+
+    private static Track fetch(String mount) throws IOException, XmlPullParserException {
+        URL url = new URL(ENDPOINT + "?mountName=" + URLEncoder.encode(mount, "UTF-8") + "&numberToFetch=1&eventType=track");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                return parse(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Reads the first nowplaying-info of the response:
+     * {@code <nowplaying-info type="track"><property name="cue_title"><![CDATA[...]]></property>...}
+     *
+     * @return the track, or null when the mount reports none
+     */
+    private static Track parse(InputStream in) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in, null);
+
+        Map<String, String> properties = null;
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.START_TAG) {
+                if ("nowplaying-info".equals(parser.getName())) {
+                    properties = new HashMap<>();
+                } else if (properties != null && "property".equals(parser.getName())) {
+                    String name = parser.getAttributeValue(null, "name");
+                    String value = parser.nextText();
+                    if (name != null) {
+                        properties.put(name, value.trim());
+                    }
+                }
+            } else if (event == XmlPullParser.END_TAG && properties != null && "nowplaying-info".equals(parser.getName())) {
+                break;
+            }
+        }
+        if (properties == null || properties.get(CuePoint.CUE_TITLE) == null) return null;
+
+        Track track = new Track(properties.get(CuePoint.CUE_TITLE), properties.get(CuePoint.TRACK_ARTIST_NAME),
+                parseInt(properties.get(CuePoint.CUE_TIME_DURATION)));
+        track.setAlbum(properties.get(CuePoint.TRACK_ALBUM_NAME));
+        track.setCoverUrl(properties.get(CuePoint.TRACK_COVER_URL));
+        track.setStartedAt(parseLong(properties.get(CuePoint.CUE_START_TIMESTAMP)));
+        return track;
+    }
+
+    private static int parseInt(String value) {
+        return (int) parseLong(value);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            if (mChanges.isEmpty() || mReleased) return;
+            Map<String, Track> changes = new LinkedHashMap<>(mChanges);
+            mChanges.clear();
+            mListener.onNowPlayingChanged(changes);
+        }
+    };
+
+    private static class Entry {
+        long fetchedAt;
+        Track track;
+    }
+}
@@ -0,0 +1,100 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.database.StandaloneDatabaseProvider;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSource;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk cache for on-demand media. Reads go through a size-bounded LRU {@link SimpleCache}, so a
+ * replayed, resumed or prefetched item starts from local storage instead of the network.
+ * <p>
+ * SimpleCache locks its directory, so there is one instance per process and it lives as long as the process.
+ */
+class OnDemandCache {
+
+    private static final String TAG = "OnDemandCache";
+    private static final long MAX_BYTES = 100 * 1024 * 1024;
+    private static final int TIMEOUT_MS = 10000;
+
+    private static OnDemandCache sInstance;
+
+    private final SimpleCache mCache;
+    private final CacheDataSource.Factory mDataSourceFactory;
+    private final ExecutorService mPrefetchExecutor = Executors.newSingleThreadExecutor();
+    private final Set<String> mPrefetching = new HashSet<>();
+
+    static synchronized OnDemandCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new OnDemandCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private OnDemandCache(Context context) {
+        mCache = new SimpleCache(new File(context.getCacheDir(), "ondemand"),
+                new LeastRecentlyUsedCacheEvictor(MAX_BYTES), new StandaloneDatabaseProvider(context));
+
+        DefaultHttpDataSource.Factory httpFactory = new DefaultHttpDataSource.Factory()
+                .setConnectTimeoutMs(TIMEOUT_MS)
+                .setReadTimeoutMs(TIMEOUT_MS)
+                .setAllowCrossProtocolRedirects(true);
+        mDataSourceFactory = new CacheDataSource.Factory()
+                .setCache(mCache)
+                .setUpstreamDataSourceFactory(new DefaultDataSource.Factory(context, httpFactory))
+                // a broken cache file should not break playback, fall back to the network
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+    }
+
+    /**
+     * @return a data source factory that reads through the cache and writes what it downloads into it
+     */
+    CacheDataSource.Factory getDataSourceFactory() {
+        return mDataSourceFactory;
+    }
+
+    /**
+     * Downloads the first bytes of a progressive item into the cache in the background. Items that
+     * are already being prefetched are skipped, and bytes that are cached already are not fetched again.
+     */
+    void prefetch(final String url, final long bytes) {
+        if (url == null || bytes <= 0) return;
+        synchronized (mPrefetching) {
+            if (!mPrefetching.add(url)) return;
+        }
+
+        mPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DataSpec dataSpec = new DataSpec.Builder()
+                        .setUri(Uri.parse(url))
+                        .setLength(bytes)
+                        .build();
+                try {
+                    new CacheWriter(mDataSourceFactory.createDataSource(), dataSpec, null, null).cache();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not prefetch " + url, e);
+                } finally {
+                    synchronized (mPrefetching) {
+                        mPrefetching.remove(url);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,309 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.PlaybackException;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.source.DefaultMediaSourceFactory;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.tritondigital.player.MediaPlayer;
+import com.tritondigital.player.TritonPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a queue of {@link OnDemandStream}s with ExoPlayer, reading through the {@link OnDemandCache}.
+ * The whole queue is handed to ExoPlayer as one playlist, so it buffers into the next item before the
+ * current one ends and moves on gaplessly without a round trip through JS. The head of the next item
+ * is also prefetched into the cache as soon as an item starts, so skipping ahead starts fast. Progressive
+ * files and HLS playlists are both supported, the media source is picked from the URL. Unlike
+ * TritonPlayer there is no station lookup or ad targeting in front of the media, so it starts faster.
+ * How much is buffered before and during playback comes from the {@link BufferProfile}.
+ * <p>
+ * ExoPlayer's states are mapped onto the TritonPlayer ones, so the service handles both players alike:
+ * CONNECTING until the first frame is ready, rebuffers reported as INFO_BUFFERING_START/COMPLETED
+ * while staying PLAYING.
+ * <p>
+ * Runs on the looper it is given; every call and callback happens there, except the position and
+ * duration getters, which can be called from any thread.
+ */
+class OnDemandPlayer {
+
+    interface Listener {
+        void onStateChanged(OnDemandPlayer player, int state);
+
+        void onInfo(OnDemandPlayer player, int what);
+
+        void onItemChanged(OnDemandPlayer player, int index);
+    }
+
+    private static final String TAG = "OnDemandPlayer";
+    private static final long PREFETCH_NEXT_BYTES = 512 * 1024;
+    // skipPrevious() past this point restarts the current item instead
+    private static final long RESTART_THRESHOLD_MS = 3000;
+
+    private final ExoPlayer mExoPlayer;
+    private final OnDemandCache mCache;
+    private final List<String> mUrls;
+    private final Listener mListener;
+
+    private int mState = TritonPlayer.STATE_STOPPED;
+    private boolean mPrepared;
+    private boolean mBuffering;
+    private boolean mSeeking;
+    private int mIndex;
+    // where play() starts when the media is not prepared yet
+    private long mStartPositionMs;
+
+    // Last known position, extrapolated while playing so it can be read without touching ExoPlayer
+    private long mPositionMs;
+    private long mPositionAt;
+    private long mDurationMs = MediaPlayer.DURATION_UNKNOWN;
+    private boolean mSeekable;
+
+    OnDemandPlayer(Context context, Looper looper, List<String> urls, int startIndex, BufferProfile profile, Listener listener) {
+        this(context, looper, OnDemandCache.get(context).getDataSourceFactory(), urls, startIndex, profile, listener);
+    }
+
+    /**
+     * Reads the media from the given sources instead of the cache, e.g. a {@link TimeShiftBuffer}.
+     */
+    OnDemandPlayer(Context context, Looper looper, DataSource.Factory dataSourceFactory, List<String> urls, int startIndex,
+                   BufferProfile profile, Listener listener) {
+        mCache = OnDemandCache.get(context);
+        mUrls = new ArrayList<>(urls);
+        mIndex = Math.max(0, Math.min(startIndex, mUrls.size() - 1));
+        mListener = listener;
+        mExoPlayer = new ExoPlayer.Builder(context)
+                .setLooper(looper)
+                .setMediaSourceFactory(new DefaultMediaSourceFactory(dataSourceFactory))
+                .setLoadControl(profile.buildLoadControl())
+                .build();
+        mExoPlayer.addListener(mExoListener);
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    void play() {
+        if (mState == TritonPlayer.STATE_RELEASED) return;
+        if (!mPrepared) {
+            mPrepared = true;
+            List<MediaItem> items = new ArrayList<>(mUrls.size());
+            for (String url : mUrls) {
+                items.add(MediaItem.fromUri(url));
+            }
+            mExoPlayer.setMediaItems(items, mIndex, mStartPositionMs);
+            mExoPlayer.prepare();
+            setState(TritonPlayer.STATE_CONNECTING);
+            prefetchNext();
+        } else if (mState == TritonPlayer.STATE_COMPLETED) {
+            restartFrom(mIndex, 0);
+        }
+        mExoPlayer.play();
+        updatePlayingState();
+    }
+
+    void pause() {
+        if (mState != TritonPlayer.STATE_PLAYING && mState != TritonPlayer.STATE_CONNECTING) return;
+        mExoPlayer.pause();
+        updatePosition();
+        setState(TritonPlayer.STATE_PAUSED);
+    }
+
+    /**
+     * Seeks within the current item. Before the queue is prepared, or after it was stopped, this only
+     * moves where the next play() starts.
+     */
+    void seekTo(long positionMs) {
+        seekTo(mIndex, positionMs);
+    }
+
+    /**
+     * @return false when this is the last item
+     */
+    boolean skipNext() {
+        if (mIndex + 1 >= mUrls.size()) return false;
+        seekTo(mIndex + 1, 0);
+        return true;
+    }
+
+    void skipPrevious() {
+        if (mIndex == 0 || getPosition() > RESTART_THRESHOLD_MS) {
+            seekTo(mIndex, 0);
+        } else {
+            seekTo(mIndex - 1, 0);
+        }
+    }
+
+    private void seekTo(int index, long positionMs) {
+        if (mState == TritonPlayer.STATE_RELEASED) return;
+        positionMs = Math.max(0, positionMs);
+        if (!mPrepared) {
+            mStartPositionMs = positionMs;
+            setPosition(positionMs, false);
+            setIndex(index);
+            return;
+        }
+        if (mState == TritonPlayer.STATE_COMPLETED) {
+            restartFrom(index, positionMs);
+            return;
+        }
+        // the buffering that follows is the seek, not a rebuffer
+        mSeeking = true;
+        mExoPlayer.seekTo(index, positionMs);
+        updatePosition();
+    }
+
+    /**
+     * Seeking out of the ended state starts playing again, which goes through CONNECTING like a new play.
+     */
+    private void restartFrom(int index, long positionMs) {
+        mExoPlayer.seekTo(index, positionMs);
+        updatePosition();
+        setState(TritonPlayer.STATE_CONNECTING);
+    }
+
+    private void setIndex(int index) {
+        if (index == mIndex) return;
+        mIndex = index;
+        prefetchNext();
+        mListener.onItemChanged(this, index);
+    }
+
+    private void prefetchNext() {
+        if (mIndex + 1 < mUrls.size()) {
+            mCache.prefetch(mUrls.get(mIndex + 1), PREFETCH_NEXT_BYTES);
+        }
+    }
+
+    /**
+     * @return the playback position in ms
+     */
+    synchronized long getPosition() {
+        long position = mPositionMs;
+        if (mPositionAt != 0) {
+            position += SystemClock.elapsedRealtime() - mPositionAt;
+        }
+        return mDurationMs > 0 ? Math.min(position, mDurationMs) : position;
+    }
+
+    /**
+     * @return the duration in ms, or {@link MediaPlayer#DURATION_UNKNOWN} until the media says
+     */
+    synchronized long getDuration() {
+        return mDurationMs;
+    }
+
+    synchronized boolean isSeekable() {
+        return mSeekable;
+    }
+
+    void stop() {
+        if (mState == TritonPlayer.STATE_RELEASED || mState == TritonPlayer.STATE_STOPPED) return;
+        // ExoPlayer drops the media on stop, a later play() prepares it again from where it was
+        mStartPositionMs = Math.max(0, mExoPlayer.getCurrentPosition());
+        mExoPlayer.stop();
+        mPrepared = false;
+        mBuffering = false;
+        mSeeking = false;
+        setPosition(mStartPositionMs, false);
+        setState(TritonPlayer.STATE_STOPPED);
+    }
+
+    void release() {
+        if (mState == TritonPlayer.STATE_RELEASED) return;
+        mExoPlayer.removeListener(mExoListener);
+        mExoPlayer.release();
+        mState = TritonPlayer.STATE_RELEASED;
+    }
+
+    void setVolume(float volume) {
+        mExoPlayer.setVolume(volume);
+    }
+
+    private void updatePlayingState() {
+        updatePosition();
+        int playbackState = mExoPlayer.getPlaybackState();
+        if (playbackState == Player.STATE_READY) {
+            mSeeking = false;
+        }
+        if (!mExoPlayer.getPlayWhenReady()) return;
+
+        switch (playbackState) {
+            case Player.STATE_READY:
+                if (mBuffering) {
+                    mBuffering = false;
+                    mListener.onInfo(this, MediaPlayer.INFO_BUFFERING_COMPLETED);
+                }
+                setState(TritonPlayer.STATE_PLAYING);
+                break;
+            case Player.STATE_BUFFERING:
+                if (mState == TritonPlayer.STATE_PLAYING && !mBuffering && !mSeeking) {
+                    mBuffering = true;
+                    mListener.onInfo(this, MediaPlayer.INFO_BUFFERING_START);
+                }
+                break;
+            case Player.STATE_ENDED:
+                setState(TritonPlayer.STATE_COMPLETED);
+                break;
+        }
+    }
+
+    private void updatePosition() {
+        long duration = mExoPlayer.getDuration();
+        synchronized (this) {
+            mDurationMs = duration == C.TIME_UNSET ? MediaPlayer.DURATION_UNKNOWN : duration;
+            mSeekable = mExoPlayer.isCurrentMediaItemSeekable();
+        }
+        setPosition(mExoPlayer.getCurrentPosition(), mExoPlayer.isPlaying());
+    }
+
+    private synchronized void setPosition(long positionMs, boolean advancing) {
+        mPositionMs = positionMs;
+        mPositionAt = advancing ? SystemClock.elapsedRealtime() : 0;
+    }
+
+    private void setState(int state) {
+        if (mState == state || mState == TritonPlayer.STATE_RELEASED) return;
+        mState = state;
+        mListener.onStateChanged(this, state);
+    }
+
+    private final Player.Listener mExoListener = new Player.Listener() {
+        @Override
+        public void onPlaybackStateChanged(int playbackState) {
+            updatePlayingState();
+        }
+
+        @Override
+        public void onIsPlayingChanged(boolean isPlaying) {
+            updatePosition();
+        }
+
+        @Override
+        public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+            setIndex(mExoPlayer.getCurrentMediaItemIndex());
+            updatePosition();
+        }
+
+        @Override
+        public void onPlayerError(PlaybackException error) {
+            Log.w(TAG, "Playback failed for " + mUrls.get(mIndex) + ": " + error.getErrorCodeName(), error);
+            mPrepared = false;
+            mBuffering = false;
+            mSeeking = false;
+            mStartPositionMs = Math.max(0, mExoPlayer.getCurrentPosition());
+            setPosition(mStartPositionMs, false);
+            setState(TritonPlayer.STATE_ERROR);
+        }
+    };
+}
@@ -1,8 +1,13 @@
 package com.tritonsdk.impl;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import java.io.Serializable;
 
-public class OnDemandStream implements Serializable {
+public class OnDemandStream implements Serializable, Parcelable {
+
+    private static final long serialVersionUID = 376251400411004705L;
 
     private String url;
 
@@ -14,6 +19,10 @@ public class OnDemandStream implements Serializable {
         this.url = url;
     }
 
+    protected OnDemandStream(Parcel in) {
+        url = in.readString();
+    }
+
     public String getURL() {
         return url;
     }
@@ -22,6 +31,28 @@ public class OnDemandStream implements Serializable {
         this.url = url;
     }
 
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(url);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<OnDemandStream> CREATOR = new Creator<OnDemandStream>() {
+        @Override
+        public OnDemandStream createFromParcel(Parcel in) {
+            return new OnDemandStream(in);
+        }
+
+        @Override
+        public OnDemandStream[] newArray(int size) {
+            return new OnDemandStream[size];
+        }
+    };
+
     public interface OnStreamClickListener {
 
         void onStreamClicked(OnDemandStream stream);
@@ -0,0 +1,302 @@
+package com.tritonsdk.impl;
+
+import com.tritondigital.player.TritonPlayer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Playback timings per stream mount, kept in fixed-bucket histograms, and summed per buffer profile
+ * as well. Everything a mount or profile needs is allocated the first time it is played, so
+ * recording a transition on the playback thread does not allocate.
+ */
+public class PlaybackMetrics {
+
+    // Upper bounds of the histogram buckets, the last bucket catches everything above
+    public static final long[] BUCKET_BOUNDS_MS = {100, 250, 500, 1000, 2000, 4000, 8000, 16000};
+    public static final int MAX_MOUNTS = 32;
+    public static final String KEY_ON_DEMAND = "on_demand";
+    public static final String KEY_OTHER = "other";
+
+    private final Map<String, MountMetrics> mMounts = new HashMap<>();
+    // the same timings summed per buffer profile
+    private final Map<String, MountMetrics> mProfiles = new HashMap<>();
+
+    // What the current play request records into: its mount and its profile
+    private final MountMetrics[] mCurrent = new MountMetrics[2];
+
+    // In-flight timestamps, SystemClock.elapsedRealtime()
+    private long mCommandAt;
+    private long mConnectingAt;
+    private long mBufferingAt;
+    // the current play request got a reused or standby player instead of a new one
+    private boolean mCommandReused;
+    private int mLastState = PlaybackSnapshot.STATE_IDLE;
+
+    public synchronized void onCommand(String key, String profile, long now) {
+        mCurrent[0] = getOrCreate(mMounts, key);
+        mCurrent[1] = getOrCreate(mProfiles, profile);
+        for (MountMetrics metrics : mCurrent) {
+            metrics.plays++;
+        }
+        mCommandAt = now;
+        mConnectingAt = 0;
+        mBufferingAt = 0;
+        mCommandReused = false;
+    }
+
+    /**
+     * Marks the current play request as served by an already built player, its time to first audio is
+     * then also recorded in {@link MountMetrics#timeToFirstAudioReused}.
+     */
+    public synchronized void onPlayerReused() {
+        if (mCurrent[0] == null) return;
+        mCommandReused = true;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.reusedPlays++;
+        }
+    }
+
+    private static MountMetrics getOrCreate(Map<String, MountMetrics> map, String key) {
+        MountMetrics metrics = map.get(key);
+        if (metrics == null) {
+            if (map.size() >= MAX_MOUNTS) {
+                key = KEY_OTHER;
+                metrics = map.get(key);
+            }
+            if (metrics == null) {
+                metrics = new MountMetrics();
+                map.put(key, metrics);
+            }
+        }
+        return metrics;
+    }
+
+    public synchronized void onStateChanged(int state, long now) {
+        if (mCurrent[0] == null) return;
+
+        switch (state) {
+            case TritonPlayer.STATE_CONNECTING:
+                mConnectingAt = now;
+                if (mCommandAt != 0) {
+                    for (MountMetrics metrics : mCurrent) {
+                        metrics.commandToConnecting.record(now - mCommandAt);
+                    }
+                }
+                break;
+            case TritonPlayer.STATE_PLAYING:
+                if (mConnectingAt != 0) {
+                    for (MountMetrics metrics : mCurrent) {
+                        metrics.connectingToPlaying.record(now - mConnectingAt);
+                    }
+                    mConnectingAt = 0;
+                }
+                if (mCommandAt != 0) {
+                    for (MountMetrics metrics : mCurrent) {
+                        metrics.timeToFirstAudio.record(now - mCommandAt);
+                        if (mCommandReused) {
+                            metrics.timeToFirstAudioReused.record(now - mCommandAt);
+                        }
+                    }
+                    mCommandAt = 0;
+                }
+                break;
+            case TritonPlayer.STATE_ERROR:
+                if (mLastState != TritonPlayer.STATE_ERROR) {
+                    for (MountMetrics metrics : mCurrent) {
+                        metrics.errors++;
+                    }
+                }
+                mCommandAt = 0;
+                mConnectingAt = 0;
+                break;
+        }
+        mLastState = state;
+    }
+
+    public synchronized void onBufferingStart(long now) {
+        if (mCurrent[0] == null || mBufferingAt != 0) return;
+        mBufferingAt = now;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.rebuffers++;
+        }
+    }
+
+    public synchronized void onBufferingCompleted(long now) {
+        if (mCurrent[0] == null || mBufferingAt == 0) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.rebufferTime.record(now - mBufferingAt);
+        }
+        mBufferingAt = 0;
+    }
+
+    public synchronized void onReconnectAttempt() {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.reconnects++;
+        }
+    }
+
+    public synchronized void onReconnected(long elapsedMs) {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.reconnectTime.record(elapsedMs);
+        }
+    }
+
+    public synchronized void onReconnectFailed() {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.reconnectFailures++;
+        }
+    }
+
+    public synchronized void onFocusLoss() {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.focusLosses++;
+        }
+    }
+
+    public synchronized void onReconnectAvoided() {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.reconnectsAvoided++;
+        }
+    }
+
+    public synchronized void onDuplicateMetadata() {
+        if (mCurrent[0] == null) return;
+        for (MountMetrics metrics : mCurrent) {
+            metrics.duplicateMetadata++;
+        }
+    }
+
+    /**
+     * @return a copy of the metrics per mount
+     */
+    public synchronized Map<String, MountMetrics> snapshot() {
+        return copy(mMounts);
+    }
+
+    /**
+     * @return a copy of the metrics per buffer profile
+     */
+    public synchronized Map<String, MountMetrics> snapshotByProfile() {
+        return copy(mProfiles);
+    }
+
+    private static Map<String, MountMetrics> copy(Map<String, MountMetrics> map) {
+        Map<String, MountMetrics> copy = new HashMap<>();
+        for (Map.Entry<String, MountMetrics> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    public synchronized void reset() {
+        mMounts.clear();
+        mProfiles.clear();
+        mCurrent[0] = null;
+        mCurrent[1] = null;
+    }
+
+    public static class MountMetrics {
+        public final Histogram commandToConnecting = new Histogram();
+        public final Histogram connectingToPlaying = new Histogram();
+        public final Histogram timeToFirstAudio = new Histogram();
+        // the part of timeToFirstAudio played through reused or standby players
+        public final Histogram timeToFirstAudioReused = new Histogram();
+        public final Histogram rebufferTime = new Histogram();
+        public final Histogram reconnectTime = new Histogram();
+        public int plays;
+        public int reusedPlays;
+        public int rebuffers;
+        public int errors;
+        public int reconnects;
+        public int reconnectFailures;
+        public int focusLosses;
+        // transient focus losses ridden out muted, each one a live reconnect saved
+        public int reconnectsAvoided;
+        // track updates dropped as resends of the current track
+        public int duplicateMetadata;
+
+        MountMetrics copy() {
+            MountMetrics copy = new MountMetrics();
+            copy.commandToConnecting.copyFrom(commandToConnecting);
+            copy.connectingToPlaying.copyFrom(connectingToPlaying);
+            copy.timeToFirstAudio.copyFrom(timeToFirstAudio);
+            copy.timeToFirstAudioReused.copyFrom(timeToFirstAudioReused);
+            copy.rebufferTime.copyFrom(rebufferTime);
+            copy.reconnectTime.copyFrom(reconnectTime);
+            copy.plays = plays;
+            copy.reusedPlays = reusedPlays;
+            copy.rebuffers = rebuffers;
+            copy.errors = errors;
+            copy.reconnects = reconnects;
+            copy.reconnectFailures = reconnectFailures;
+            copy.focusLosses = focusLosses;
+            copy.reconnectsAvoided = reconnectsAvoided;
+            copy.duplicateMetadata = duplicateMetadata;
+            return copy;
+        }
+    }
+
+    public static class Histogram {
+        private final long[] bounds;
+        private final long[] counts;
+        private long count;
+        private long sum;
+        private long max;
+
+        Histogram() {
+            this(BUCKET_BOUNDS_MS);
+        }
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            counts = new long[bounds.length + 1];
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sum += value;
+            if (value > max) max = value;
+        }
+
+        void copyFrom(Histogram other) {
+            System.arraycopy(other.counts, 0, counts, 0, counts.length);
+            count = other.count;
+            sum = other.sum;
+            max = other.max;
+        }
+
+        /**
+         * @return the upper bounds of the buckets, {@link #getCounts()} has one more for everything above
+         */
+        public long[] getBounds() {
+            return bounds.clone();
+        }
+
+        public long[] getCounts() {
+            return counts.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
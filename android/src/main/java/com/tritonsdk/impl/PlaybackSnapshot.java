@@ -0,0 +1,59 @@
+package com.tritonsdk.impl;
+
+/**
+ * Immutable view of what PlayerService is playing. The service publishes a new instance after every
+ * change on its playback thread, so other threads can read a consistent stream/track/state without locking.
+ */
+public final class PlaybackSnapshot {
+
+    public static final int STATE_IDLE = -1;
+    public static final PlaybackSnapshot IDLE = new PlaybackSnapshot(STATE_IDLE, null, null, null);
+
+    private final int state;
+    private final Stream stream;
+    private final OnDemandStream onDemandStream;
+    private final Track track;
+
+    private PlaybackSnapshot(int state, Stream stream, OnDemandStream onDemandStream, Track track) {
+        this.state = state;
+        this.stream = stream;
+        this.onDemandStream = onDemandStream;
+        this.track = track;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public Stream getStream() {
+        return stream;
+    }
+
+    public OnDemandStream getOnDemandStream() {
+        return onDemandStream;
+    }
+
+    public Track getTrack() {
+        return track;
+    }
+
+    public boolean hasMedia() {
+        return stream != null || onDemandStream != null;
+    }
+
+    PlaybackSnapshot withState(int state) {
+        return new PlaybackSnapshot(state, stream, onDemandStream, track);
+    }
+
+    PlaybackSnapshot withStream(Stream stream) {
+        return new PlaybackSnapshot(state, stream, null, null);
+    }
+
+    PlaybackSnapshot withOnDemandStream(OnDemandStream onDemandStream) {
+        return new PlaybackSnapshot(state, null, onDemandStream, null);
+    }
+
+    PlaybackSnapshot withTrack(Track track) {
+        return new PlaybackSnapshot(state, stream, onDemandStream, track);
+    }
+}
@@ -0,0 +1,58 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+/**
+ * What PlayerService needs from a live stream player. The service builds engines through
+ * {@link PlayerService#ENGINE_FACTORY}, which defaults to TritonPlayer; the tests swap in a scripted
+ * fake to exercise the service without a network.
+ * <p>
+ * States and info codes are the TritonPlayer ones. Callbacks may come on any thread.
+ */
+public interface PlayerEngine {
+
+    interface Listener {
+        void onStateChanged(PlayerEngine engine, int state);
+
+        void onCuePointReceived(PlayerEngine engine, Bundle cuePoint);
+
+        void onMetaDataReceived(PlayerEngine engine, Bundle metaData);
+
+        void onInfo(PlayerEngine engine, int what);
+    }
+
+    interface Factory {
+        /**
+         * @param settings TritonPlayer settings, read again by the engine on every play()
+         */
+        PlayerEngine create(Context context, Bundle settings);
+    }
+
+    void setListener(Listener listener);
+
+    void play();
+
+    void pause();
+
+    void stop();
+
+    void release();
+
+    int getState();
+
+    /**
+     * @return the settings the engine was built with, changes apply from the next play()
+     */
+    Bundle getSettings();
+
+    /**
+     * @return the URL the engine streams from, with the query its settings add; null until a server was picked
+     */
+    @Nullable
+    String getStreamUrl();
+
+    void setVolume(float volume);
+}
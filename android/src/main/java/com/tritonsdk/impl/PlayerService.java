@@ -9,14 +9,21 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.media.AudioManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import android.view.View;
 import android.widget.RemoteViews;
@@ -25,75 +32,251 @@ import com.tritondigital.player.MediaPlayer;
 import com.tritondigital.player.TritonPlayer;
 import com.tritonsdk.R;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
-public class PlayerService extends Service implements TritonPlayer.OnCuePointReceivedListener, TritonPlayer.OnStateChangedListener, TritonPlayer.OnMetaDataReceivedListener, AudioManager.OnAudioFocusChangeListener {
+public class PlayerService extends Service implements PlayerEngine.Listener {
 
     // Constants
     public static final String ARG_STREAM = "stream";
     public static final String ARG_ON_DEMAND_STREAM = "on_demand_stream";
     public static final String ARG_TRACK = "track";
     public static final String ARG_STATE = "state";
+    public static final String ARG_QUEUE_INDEX = "queue_index";
+    public static final String ARG_STATION_ID = "station_id";
     public static final String DEFAULT_CHANNEL = "default";
     public static final String ACTION_INIT = "PlayerService.ACTION_INIT";
     public static final String ACTION_PLAY = "PlayerService.ACTION_PLAY";
     public static final String ACTION_STOP = "PlayerService.ACTION_STOP";
     public static final String ACTION_QUIT = "PlayerService.ACTION_QUIT";
+    public static final String ACTION_PREWARM = "PlayerService.ACTION_PREWARM";
     public static final String CUE_TYPE_TRACK = "track";
     public static final String CUE_TYPE_AD = "ad";
     public static final String EVENT_TRACK_CHANGED = "PlayerService.EVENT_TRACK_CHANGED";
     public static final String EVENT_STREAM_CHANGED = "PlayerService.EVENT_STREAM_CHANGED";
     public static final String EVENT_STATE_CHANGED = "PlayerService.EVENT_STATE_CHANGED";
+    public static final String EVENT_QUEUE_INDEX_CHANGED = "PlayerService.EVENT_QUEUE_INDEX_CHANGED";
     public static final int NOTIFICATION_SERVICE = 8;
-    public static final boolean IS_NOTIF_ACTIVE = false;
+    public static final int STANDBY_POOL_SIZE = 2;
+    public static final long STANDBY_IDLE_TIMEOUT_MS = 30000;
+    public static final long NOTIFICATION_MIN_INTERVAL_MS = 500;
+    public static final int NOTIFICATION_COVER_SIZE_DP = 48;
+    public static boolean IS_NOTIF_ACTIVE = false;
     public static String BRAND = "slam";
+    // Keep the stopped TritonPlayer of the station played last and play it again when switching back,
+    // instead of building a new one. Triton SDK 3.1.1 cannot retarget a player: the first play() builds
+    // its connection client from a copy of the settings, later edits to getSettings() are ignored, and
+    // the player kind (mount or stream URL) is fixed by the constructor. A reused player still provisions
+    // and connects again, it only saves building the player.
+    public static boolean REUSE_PLAYER = false;
+    // Also publish events as system broadcasts, for clients that are not bound in-process
+    public static boolean BROADCAST_EVENTS = false;
+    // Reconnect live streams by themselves after errors and stalls
+    public static boolean AUTO_RECONNECT = true;
+    // BufferProfile for play requests that do not name one
+    public static String BUFFER_PROFILE = BufferProfile.BALANCED;
+    // play(Stream) calls closer together than this only connect the last one, 0 connects every call
+    public static long ZAP_DEBOUNCE_MS = 300;
+    // Record paused live streams and resume them where they were, instead of at the live edge. Only
+    // the audio is recorded: no cue points or stream metadata while playing from the recording.
+    public static boolean TIME_SHIFT = false;
+    // How far behind live a time-shifted stream can fall, older audio is dropped. A longer pause ends
+    // the recording, the stream resumes at the live edge.
+    public static long TIME_SHIFT_MAX_MS = 30 * 60 * 1000;
+    // Builds the live stream players, tests swap in a fake to run without a network
+    public static PlayerEngine.Factory ENGINE_FACTORY = TritonEngine.FACTORY;
+    // Resume what was playing when the system recreates the service after killing the process. Only
+    // sessions saved while the notification was on are resumed, the restart shows it again first.
+    public static boolean RESUME_AFTER_RESTART = false;
+    // Sessions older than this are not resumed by a restart, a notification tap still plays them
+    public static long RESUME_MAX_AGE_MS = 10 * 60 * 1000;
+    // The session is written at most this often, and this often while an on-demand item plays
+    public static final long SESSION_SAVE_DELAY_MS = 2000;
+    public static final long SESSION_POSITION_INTERVAL_MS = 15000;
+
+    private static final String TAG = "PlayerService";
+    private static final String[] T_TAGS = {"PLAYER:NOPREROLL"};
 
     // Binder
     private final IBinder iBinder = new LocalBinder();
 
-    // Player
-    private TritonPlayer mPlayer;
-    private Stream mCurrentStream;
-    private OnDemandStream mCurrentOnDemandStream;
-    private Track mCurrentTrack;
+    // Playback thread: every command and player callback runs here, in order
+    private HandlerThread mPlaybackThread;
+    private Handler mPlaybackHandler;
+
+    // Player, only touched on the playback thread
+    private PlayerEngine mPlayer;
+
+    // On-demand items play through ExoPlayer and the disk cache instead, never alongside mPlayer.
+    // Only touched on the playback thread, except for the thread-safe position getters.
+    private volatile OnDemandPlayer mOnDemandPlayer;
+
+    // Recording of the paused live stream while TIME_SHIFT is on. Once resumed, mOnDemandPlayer plays
+    // it and mPlayer is gone until the next play(). Only touched on the playback thread.
+    private volatile TimeShiftBuffer mTimeShift;
+    private int mTimeShiftCount;
+
+    // Buffer profile of the current play request
+    private BufferProfile mBufferProfile = BufferProfile.forName(BufferProfile.BALANCED);
+
+    // On-demand queue, the snapshot's OnDemandStream is the item at mQueueIndex
+    private List<OnDemandStream> mQueue = Collections.emptyList();
+    private volatile int mQueueIndex = -1;
+
+    // Newest play(Stream) request still waiting out ZAP_DEBOUNCE_MS, only touched on the playback thread
+    private Stream mPendingStream;
+    private String mPendingBufferProfile;
+    private long mPendingReceivedAt;
+
+    // Muted, pre-connected players for stations hinted through prewarm()
+    private StandbyPool mStandbyPool;
+
+    // Stopped player of the station played last with REUSE_PLAYER and its idlePlayerKey(). Only touched
+    // on the playback thread.
+    private PlayerEngine mIdlePlayer;
+    private String mIdlePlayerKey;
+
+    // Written on the playback thread only, read from anywhere
+    private volatile PlaybackSnapshot mSnapshot = PlaybackSnapshot.IDLE;
+
+    // Cue points and stream metadata to tracks, once per change, only touched on the playback thread
+    private final MetadataPipeline mMetadata = new MetadataPipeline();
+
+    // Stations JS registered, for playing by id and naming the station in the notification
+    private StationCatalog mCatalog;
+
+    // What plays, persisted for resuming after process death, created in onCreate
+    private SessionStore mSessionStore;
+    private boolean mSessionSaveScheduled;
+    // the app's task was swiped away, sessions saved since are not resumed by a restart
+    private boolean mTaskRemoved;
+    // where the next on-demand player starts, set when a saved session is restored
+    private long mResumePositionMs;
+
+    // Recently played track cues per mount
+    private final TrackHistory mTrackHistory = new TrackHistory();
+
+    // Bound in-process clients, called directly on the playback thread
+    private final List<OnPlayerEventListener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Reconnects live streams after errors and stalls, created in onCreate
+    private ReconnectSupervisor mReconnectSupervisor;
+
+    // Ducks, mutes or pauses playback while another app has audio focus, created in onCreate
+    private AudioFocusPolicy mAudioFocus;
+
+    // Per-mount timings, histograms and counters for telemetry
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics();
 
     // Notification
     private NotificationCompat.Builder mBuilder;
     private RemoteViews mRemoteViews;
     private NotificationManager mNotificationManager;
 
+    // Built once per shown notification and reused by every update
+    private PendingIntent mStopPendingIntent;
+    private PendingIntent mPlayPendingIntent;
+    private PendingIntent mQuitPendingIntent;
+    private int mPauseDrawable;
+    private int mPlayDrawable;
+
+    // What the RemoteViews currently show, so an update only applies the fields that changed
+    private int mShownPlayback = -1;
+    private String mShownTitle;
+    private String mShownArtist;
+    private String mShownCoverUrl;
+
+    // Cover art for the notification
+    private ArtworkLoader mArtworkLoader;
+
+    // notify() rate limiting; mNotifySkipped counts the NotificationManager IPCs that were saved
+    private long mLastNotifyAt;
+    private boolean mNotifyScheduled;
+    private int mNotifyCount;
+    private int mNotifySkipped;
+
     private MusicIntentReceiver mReceiver = new MusicIntentReceiver();
+    private boolean mReceiverRegistered;
 
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mPlaybackThread = new HandlerThread("TritonPlayback");
+        mPlaybackThread.start();
+        mPlaybackHandler = new Handler(mPlaybackThread.getLooper());
+
+        mStandbyPool = new StandbyPool(new StandbyPool.PlayerFactory() {
+            @Override
+            public PlayerEngine create(Stream stream) {
+                // standbys are built before anyone asks for them, with the default profile
+                Bundle settings = buildBaseSettings(BufferProfile.forName(BUFFER_PROFILE));
+                putStationTarget(settings, stream);
+                return ENGINE_FACTORY.create(PlayerService.this, settings);
+            }
+        }, mPlaybackHandler, STANDBY_POOL_SIZE, STANDBY_IDLE_TIMEOUT_MS);
+
+        mReconnectSupervisor = new ReconnectSupervisor(mPlaybackHandler, mReconnector);
+        mAudioFocus = new AudioFocusPolicy(getAudioManager(), mPlaybackHandler, mFocusTarget);
+        mCatalog = StationCatalog.get(this);
+        mSessionStore = new SessionStore(new File(getFilesDir(), "session.bin"));
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCatalog.preload();
+                mSessionStore.load();
+            }
+        });
+
+        int coverSize = Math.round(NOTIFICATION_COVER_SIZE_DP * getResources().getDisplayMetrics().density);
+        mArtworkLoader = new ArtworkLoader(new File(getCacheDir(), "artwork"), coverSize, mPlaybackHandler);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null && intent.getAction() != null) {
+        if (intent == null) {
+            // START_STICKY: the system recreated us after it killed the process
+            registerHeadsetReceiver();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    handleRestart();
+                }
+            });
+        }
+        else if (intent.getAction() != null) {
             switch (intent.getAction()) {
                 case ACTION_INIT:
-                    IntentFilter filter = new IntentFilter(Intent.ACTION_HEADSET_PLUG);
-                    registerReceiver(mReceiver, filter);
+                    registerHeadsetReceiver();
                     // nothing
                     break;
                 case ACTION_PLAY:
-                    if (intent.hasExtra(ARG_STREAM)) {
-                        mCurrentStream = (Stream) intent.getSerializableExtra(ARG_STREAM);
-                        notifyStationUpdate();
-                        mCurrentTrack = null;
-                        mCurrentOnDemandStream = null;
-                        notifyTrackUpdate();
+                    Stream stream = getModelExtra(intent, ARG_STREAM, Stream.class);
+                    OnDemandStream onDemandStream = getModelExtra(intent, ARG_ON_DEMAND_STREAM, OnDemandStream.class);
+                    if (intent.hasExtra(ARG_STATION_ID)) {
+                        playStation(intent.getStringExtra(ARG_STATION_ID), null);
                     }
-                    else if (intent.hasExtra(ARG_ON_DEMAND_STREAM)) {
-                        mCurrentOnDemandStream = (OnDemandStream) intent.getSerializableExtra(ARG_ON_DEMAND_STREAM);
-                        //notifyStationUpdate();
-                        //TODO maybe fire an event here somehow?
-                        mCurrentTrack = null;
-                        mCurrentStream = null;
-                        //notifyTrackUpdate();
+                    else if (stream != null) {
+                        play(stream);
+                    }
+                    else if (onDemandStream != null) {
+                        playOnDemandStream(onDemandStream);
+                    }
+                    else {
+                        play();
+                    }
+                    break;
+                case ACTION_PREWARM:
+                    if (intent.hasExtra(ARG_STREAM)) {
+                        prewarm(getModelExtra(intent, ARG_STREAM, Stream.class));
                     }
-
-                    play();
                     break;
                 case ACTION_QUIT:
                     //releasePlayer();
@@ -106,17 +289,55 @@ public class PlayerService extends Service implements TritonPlayer.OnCuePointRec
             }
         }
 
-        return super.onStartCommand(intent, flags, startId);
+        return START_STICKY;
+    }
+
+    @Override
+    public void onTaskRemoved(Intent rootIntent) {
+        super.onTaskRemoved(rootIntent);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                // swiped away: playback may go on, but a restart must not bring it back
+                mTaskRemoved = true;
+                saveSession(false);
+            }
+        });
+    }
+
+    private void registerHeadsetReceiver() {
+        if (mReceiverRegistered) return;
+        mReceiverRegistered = true;
+        registerReceiver(mReceiver, new IntentFilter(Intent.ACTION_HEADSET_PLUG));
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
 
-        if (mPlayer != null) {
-            mPlayer.release();
-            mPlayer = null;
-        }
+        mPlaybackHandler.removeCallbacksAndMessages(null);
+        mPlaybackHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // an orderly end, not process death: do not resume it, but keep it for a play() without extras
+                saveSession(false);
+                mSessionStore.shutdown();
+                mStandbyPool.clear();
+                clearIdlePlayer();
+                releaseTimeShift();
+                if (mPlayer != null) {
+                    mPlayer.release();
+                    mPlayer = null;
+                }
+                if (mOnDemandPlayer != null) {
+                    mOnDemandPlayer.release();
+                    mOnDemandPlayer = null;
+                }
+                publish(PlaybackSnapshot.IDLE);
+            }
+        });
+        mPlaybackThread.quitSafely();
+        mArtworkLoader.shutdown();
 
         try {
             unregisterReceiver(mReceiver);
@@ -125,115 +346,826 @@ public class PlayerService extends Service implements TritonPlayer.OnCuePointRec
         }
     }
 
+    /**
+     * Reads a Stream/OnDemandStream/Track extra. Our own intents carry Parcelables, but callers
+     * built against older versions may still send the Serializable form.
+     */
+    @Nullable
+    public static <T> T getModelExtra(Intent intent, String key, Class<T> type) {
+        Bundle extras = intent.getExtras();
+        if (extras == null) return null;
+        extras.setClassLoader(type.getClassLoader());
+        Object value = extras.get(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
     private void playMedia() {
-        if (mCurrentStream == null && mCurrentOnDemandStream == null) return;
+        if (!mSnapshot.hasMedia()) return;
 
-        String[] tTags = {"PLAYER:NOPREROLL"};
+        mPlayer = ENGINE_FACTORY.create(this, buildSettings());
+        mPlayer.setListener(this);
+        startPlayback();
+    }
 
+    private void playOnDemand() {
+        List<String> urls = new ArrayList<>(mQueue.size());
+        for (OnDemandStream item : mQueue) {
+            urls.add(item.getURL());
+        }
+        mOnDemandPlayer = new OnDemandPlayer(this, mPlaybackHandler.getLooper(), urls, mQueueIndex, mBufferProfile, mOnDemandListener);
+        if (mResumePositionMs > 0) {
+            mOnDemandPlayer.seekTo(mResumePositionMs);
+            mResumePositionMs = 0;
+        }
+        startPlayback();
+    }
+
+    private void startPlayback() {
+        if (!mAudioFocus.request()) return;
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.play();
+        } else {
+            mPlayer.play();
+        }
+    }
+
+    private Bundle buildSettings() {
+        Bundle settings = buildBaseSettings(mBufferProfile);
+        putTarget(settings);
+        return settings;
+    }
+
+    private Bundle buildBaseSettings(BufferProfile profile) {
         Bundle settings = new Bundle();
+        settings.putInt(TritonPlayer.SETTINGS_LOW_DELAY, profile.getLiveDelaySeconds());
         settings.putString(TritonPlayer.SETTINGS_STATION_BROADCASTER, "Triton Digital");
+        settings.putString(TritonPlayer.SETTINGS_PLAYER_SERVICES_REGION, "EU");
+        settings.putBoolean(TritonPlayer.SETTINGS_TARGETING_LOCATION_TRACKING_ENABLED, true);
+        settings.putStringArray(TritonPlayer.SETTINGS_TTAGS, T_TAGS);
+        return settings;
+    }
 
-        if (mCurrentStream != null)
+    private void putTarget(Bundle settings) {
+        PlaybackSnapshot snapshot = mSnapshot;
+        if (snapshot.getStream() != null)
         {
-            settings.putString(TritonPlayer.SETTINGS_STATION_NAME, mCurrentStream.getTritonName());
-            settings.putString(TritonPlayer.SETTINGS_STATION_MOUNT, mCurrentStream.getTritonMount());
+            putStationTarget(settings, snapshot.getStream());
         }
-        else if (mCurrentOnDemandStream != null) {
-            settings.putString(TritonPlayer.SETTINGS_STREAM_URL, mCurrentOnDemandStream.getURL());
+        else if (snapshot.getOnDemandStream() != null) {
+            settings.putString(TritonPlayer.SETTINGS_STREAM_URL, snapshot.getOnDemandStream().getURL());
         }
+    }
 
-        settings.putString(TritonPlayer.SETTINGS_PLAYER_SERVICES_REGION, "EU");
-        settings.putBoolean(TritonPlayer.SETTINGS_TARGETING_LOCATION_TRACKING_ENABLED, true);
-        settings.putStringArray(TritonPlayer.SETTINGS_TTAGS, tTags);
-        mPlayer = new TritonPlayer(this, settings);
-        mPlayer.setOnStateChangedListener(this);
-        mPlayer.setOnCuePointReceivedListener(this);
-        mPlayer.setOnMetaDataReceivedListener(this);
-        new Thread(new Runnable() {
+    private static void putStationTarget(Bundle settings, Stream stream) {
+        settings.putString(TritonPlayer.SETTINGS_STATION_NAME, stream.getTritonName());
+        settings.putString(TritonPlayer.SETTINGS_STATION_MOUNT, stream.getTritonMount());
+    }
+
+    /**
+     * Swaps in the standby player for the current stream, if prewarm() left one connecting or playing.
+     */
+    private boolean swapToStandby() {
+        if (mSnapshot.getStream() == null) return false;
+        if (mBufferProfile != BufferProfile.forName(BUFFER_PROFILE)) return false;
+        PlayerEngine standby = mStandbyPool.take(mSnapshot.getStream());
+        if (standby == null) return false;
+
+        releasePlayer();
+        mPlayer = standby;
+        mPlayer.setListener(this);
+
+        if (!mAudioFocus.request()) {
+            mPlayer.stop();
+            return true;
+        }
+        mPlayer.setVolume(MediaPlayer.VOLUME_NORMAL);
+
+        // the standby already went through its transitions, replay the current one
+        handleStateChanged(mPlayer.getState());
+        return true;
+    }
+
+    /**
+     * Parks the current station player for REUSE_PLAYER instead of releasing it, in place of the one
+     * parked before. It stays bound to its mount, the SDK keeps the connection target from its first play().
+     */
+    private void parkPlayer() {
+        if (mPlayer == null || mOnDemandPlayer != null) return;
+        String key = idlePlayerKey(mPlayer.getSettings());
+        int state = mPlayer.getState();
+        if (key == null || state == TritonPlayer.STATE_ERROR || state == TritonPlayer.STATE_RELEASED) return;
+
+        if (state == TritonPlayer.STATE_CONNECTING || state == TritonPlayer.STATE_PLAYING || state == TritonPlayer.STATE_PAUSED) {
+            mPlayer.stop();
+        }
+        mPlayer.setListener(null);
+        clearIdlePlayer();
+        mIdlePlayer = mPlayer;
+        mIdlePlayerKey = key;
+        mPlayer = null;
+        publish(mSnapshot.withState(PlaybackSnapshot.STATE_IDLE));
+    }
+
+    /**
+     * @return the parked player for the current stream and buffer profile, null when there is none
+     */
+    @Nullable
+    private PlayerEngine takeIdlePlayer() {
+        Stream stream = mSnapshot.getStream();
+        if (mIdlePlayer == null || stream == null || stream.getTritonMount() == null
+                || !mIdlePlayerKey.equals(idlePlayerKey(stream.getTritonMount(), mBufferProfile.getLiveDelaySeconds()))) {
+            return null;
+        }
+        PlayerEngine player = mIdlePlayer;
+        mIdlePlayer = null;
+        mIdlePlayerKey = null;
+        return player;
+    }
+
+    @Nullable
+    private static String idlePlayerKey(Bundle settings) {
+        String mount = settings.getString(TritonPlayer.SETTINGS_STATION_MOUNT);
+        return mount != null ? idlePlayerKey(mount, settings.getInt(TritonPlayer.SETTINGS_LOW_DELAY)) : null;
+    }
+
+    private static String idlePlayerKey(String mount, int liveDelaySeconds) {
+        return mount + "/" + liveDelaySeconds;
+    }
+
+    private void clearIdlePlayer() {
+        if (mIdlePlayer != null) {
+            mIdlePlayer.release();
+            mIdlePlayer = null;
+            mIdlePlayerKey = null;
+        }
+    }
+
+    private boolean isPlaying() {
+        return mSnapshot.getState() == TritonPlayer.STATE_PLAYING;
+    }
+
+    private boolean isConnecting() {
+        return mSnapshot.getState() == TritonPlayer.STATE_CONNECTING;
+    }
+
+    /**
+     * Explicit state machine for the published state. Duplicates and transitions the engine cannot
+     * legitimately make (e.g. late callbacks racing a stop) are dropped instead of reaching listeners.
+     */
+    private static boolean isValidTransition(int from, int to) {
+        if (from == to) return false;
+        switch (to) {
+            case TritonPlayer.STATE_PLAYING:
+                return from == TritonPlayer.STATE_CONNECTING || from == TritonPlayer.STATE_PAUSED || from == PlaybackSnapshot.STATE_IDLE;
+            case TritonPlayer.STATE_PAUSED:
+                return from == TritonPlayer.STATE_PLAYING || from == TritonPlayer.STATE_CONNECTING;
+            case TritonPlayer.STATE_COMPLETED:
+                return from == TritonPlayer.STATE_PLAYING || from == TritonPlayer.STATE_PAUSED;
+            default:
+                return true;
+        }
+    }
+
+    private void publish(PlaybackSnapshot snapshot) {
+        mSnapshot = snapshot;
+        scheduleSessionSave(SESSION_SAVE_DELAY_MS);
+    }
+
+    @VisibleForTesting
+    Looper getPlaybackLooper() {
+        return mPlaybackThread.getLooper();
+    }
+
+    private void post(Runnable command) {
+        mPlaybackHandler.post(command);
+    }
+
+    private void runOnPlaybackThread(Runnable runnable) {
+        if (Looper.myLooper() == mPlaybackHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mPlaybackHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Plays the current stream again, or the saved session's when nothing played yet, e.g. after a
+     * notification tap in a freshly started process. A paused or stopped item resumes in its player,
+     * so on-demand items continue where they were and a time-shifted stream from its recording.
+     */
+    public void play() {
+        final long receivedAt = SystemClock.elapsedRealtime();
+        post(new Runnable() {
             @Override
             public void run() {
-                Looper.prepare();
+                if (!mSnapshot.hasMedia() && !restoreSession(mSessionStore.load())) return;
+                if (canResume()) {
+                    handleUnPause();
+                } else {
+                    handlePlay(receivedAt);
+                }
+            }
+        });
+    }
 
-                AudioManager audioManager = getAudioManager();
-                if (audioManager != null) {
-                    int result = audioManager.requestAudioFocus(PlayerService.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
-                    if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-                        mPlayer.play();
-                    }
+    private boolean canResume() {
+        if (mPlayer == null && mOnDemandPlayer == null) return false;
+        int state = mSnapshot.getState();
+        return state == TritonPlayer.STATE_PAUSED || state == TritonPlayer.STATE_STOPPED || state == TritonPlayer.STATE_COMPLETED;
+    }
+
+    public void play(Stream stream) {
+        play(stream, null);
+    }
+
+    /**
+     * Latest wins: a station is only connected once no newer play(Stream) call followed within
+     * {@link #ZAP_DEBOUNCE_MS}. Superseded requests never connect and never reach the listeners.
+     *
+     * @param bufferProfile a {@link BufferProfile} name, null for {@link #BUFFER_PROFILE}
+     */
+    public void play(final Stream stream, @Nullable final String bufferProfile) {
+        final long receivedAt = SystemClock.elapsedRealtime();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mPendingStream = stream;
+                mPendingBufferProfile = bufferProfile;
+                mPendingReceivedAt = receivedAt;
+                mPlaybackHandler.removeCallbacks(mPendingPlayRunnable);
+                if (ZAP_DEBOUNCE_MS > 0) {
+                    mPlaybackHandler.postDelayed(mPendingPlayRunnable, ZAP_DEBOUNCE_MS);
+                } else {
+                    mPendingPlayRunnable.run();
                 }
-                Looper.loop();
             }
-        }).start();
+        });
     }
 
-    private boolean isPlaying() {
-        return mPlayer != null && mPlayer.getState() == TritonPlayer.STATE_PLAYING;
+    /**
+     * Plays a station from the {@link StationCatalog}, nothing happens for an unknown id.
+     *
+     * @param id the station's mount
+     */
+    public void playStation(final String id, @Nullable final String bufferProfile) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Stream station = mCatalog.get(id);
+                if (station == null) {
+                    Log.w(TAG, "No station " + id + " in the catalog");
+                    return;
+                }
+                play(station, bufferProfile);
+            }
+        });
     }
 
-    private boolean isConnecting() {
-        return mPlayer != null && mPlayer.getState() == TritonPlayer.STATE_CONNECTING;
+    private final Runnable mPendingPlayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPendingStream == null) return;
+            // JS often only sends name and mount, the catalog knows the rest
+            Stream stream = mCatalog.resolve(mPendingStream);
+            mPendingStream = null;
+
+            mBufferProfile = resolveBufferProfile(mPendingBufferProfile);
+            mMetadata.reset();
+            publish(mSnapshot.withStream(stream));
+            mQueue = Collections.emptyList();
+            mQueueIndex = -1;
+            notifyStationUpdate();
+            notifyTrackUpdate();
+            handlePlay(mPendingReceivedAt);
+        }
+    };
+
+    /**
+     * Drops a play(Stream) request that is still waiting, a later command overrides it.
+     */
+    private void cancelPendingPlay() {
+        mPlaybackHandler.removeCallbacks(mPendingPlayRunnable);
+        mPendingStream = null;
     }
 
-    public void play() {
-        if (mCurrentStream == null && mCurrentOnDemandStream == null) return;
-        releasePlayer();
-        playMedia();
+    public void playOnDemandStream(OnDemandStream onDemandStream) {
+        playOnDemandStream(onDemandStream, null);
+    }
+
+    public void playOnDemandStream(OnDemandStream onDemandStream, @Nullable String bufferProfile) {
+        setQueue(Collections.singletonList(onDemandStream), 0, bufferProfile);
+    }
+
+    public void setQueue(List<OnDemandStream> queue, int startIndex) {
+        setQueue(queue, startIndex, null);
+    }
+
+    /**
+     * Plays the items one after the other, starting at startIndex. The next item is buffered while
+     * the current one plays, so moving on is gapless and does not wait for the caller.
+     */
+    public void setQueue(List<OnDemandStream> queue, final int startIndex, @Nullable final String bufferProfile) {
+        if (queue == null || queue.isEmpty()) return;
+        final long receivedAt = SystemClock.elapsedRealtime();
+        final List<OnDemandStream> items = new ArrayList<>(queue);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                cancelPendingPlay();
+                mResumePositionMs = 0;
+                int index = Math.max(0, Math.min(startIndex, items.size() - 1));
+                mBufferProfile = resolveBufferProfile(bufferProfile);
+                mQueue = items;
+                mQueueIndex = index;
+                mMetadata.reset();
+                publish(mSnapshot.withOnDemandStream(items.get(index)));
+                notifyQueueIndexUpdate(index);
+                handlePlay(receivedAt);
+            }
+        });
+    }
+
+    public void skipNext() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnDemandPlayer != null) {
+                    mOnDemandPlayer.skipNext();
+                }
+            }
+        });
+    }
+
+    public void skipPrevious() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnDemandPlayer != null) {
+                    mOnDemandPlayer.skipPrevious();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the index of the current on-demand item in the queue, -1 when no queue is playing
+     */
+    public int getQueueIndex() {
+        return mQueueIndex;
+    }
+
+    private static BufferProfile resolveBufferProfile(@Nullable String name) {
+        return BufferProfile.forName(name != null ? name : BUFFER_PROFILE);
+    }
+
+    /**
+     * Resumes the saved session if it was still playing when the process died and may be resumed,
+     * stops otherwise. The flags the app set died with the process, the session carries them.
+     */
+    private void handleRestart() {
+        if (mSnapshot.hasMedia()) return;
+        SessionStore.Session session = mSessionStore.load();
+        boolean resume = session != null && session.resume
+                && System.currentTimeMillis() - session.savedAt < RESUME_MAX_AGE_MS;
+        if (!resume || !restoreSession(session)) {
+            stopSelf();
+            return;
+        }
+        // the app allowed both when the session was saved, and JS is not there to set them again
+        RESUME_AFTER_RESTART = true;
+        IS_NOTIF_ACTIVE = true;
+        // in the foreground before a sound
         showNotification();
+        if (!isShowingNotification()) {
+            stopSelf();
+            return;
+        }
+        Log.i(TAG, "Resuming the session from before the process died");
+        handlePlay(SystemClock.elapsedRealtime());
     }
 
+    /**
+     * Makes the saved session's stream or on-demand item, and its last track, the current one.
+     *
+     * @return false when there is nothing to restore
+     */
+    private boolean restoreSession(@Nullable SessionStore.Session session) {
+        if (session == null || !session.hasMedia()) return false;
+        mBufferProfile = resolveBufferProfile(session.bufferProfile);
+        mMetadata.reset();
+        if (session.stream != null) {
+            publish(mSnapshot.withStream(mCatalog.resolve(session.stream)).withTrack(session.track));
+            mQueue = Collections.emptyList();
+            mQueueIndex = -1;
+            notifyStationUpdate();
+        } else {
+            mQueue = session.queue;
+            mQueueIndex = session.queueIndex;
+            mResumePositionMs = session.positionMs;
+            publish(mSnapshot.withOnDemandStream(mQueue.get(mQueueIndex)).withTrack(session.track));
+            notifyQueueIndexUpdate(mQueueIndex);
+        }
+        notifyTrackUpdate();
+        return true;
+    }
+
+    private void scheduleSessionSave(long delayMs) {
+        if (mSessionSaveScheduled) return;
+        mSessionSaveScheduled = true;
+        mPlaybackHandler.postDelayed(mSaveSessionRunnable, delayMs);
+    }
+
+    private final Runnable mSaveSessionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mSessionSaveScheduled = false;
+            int state = mSnapshot.getState();
+            saveSession(state == TritonPlayer.STATE_PLAYING || state == TritonPlayer.STATE_CONNECTING);
+            // the position moves without any publish()
+            if (state == TritonPlayer.STATE_PLAYING && mSnapshot.getOnDemandStream() != null) {
+                scheduleSessionSave(SESSION_POSITION_INTERVAL_MS);
+            }
+        }
+    };
+
+    /**
+     * @param playing whether the user expects to hear it, a restart resumes it only if the app allows
+     */
+    private void saveSession(boolean playing) {
+        PlaybackSnapshot snapshot = mSnapshot;
+        if (!snapshot.hasMedia()) return;
+        mPlaybackHandler.removeCallbacks(mSaveSessionRunnable);
+        mSessionSaveScheduled = false;
+        OnDemandPlayer onDemandPlayer = mOnDemandPlayer;
+        boolean onDemand = snapshot.getOnDemandStream() != null;
+        long positionMs = onDemand && onDemandPlayer != null ? onDemandPlayer.getPosition() : 0;
+        List<OnDemandStream> queue = onDemand ? mQueue : Collections.<OnDemandStream>emptyList();
+        boolean resume = playing && RESUME_AFTER_RESTART && IS_NOTIF_ACTIVE && !mTaskRemoved;
+        mSessionStore.write(new SessionStore.Session(snapshot.getStream(), queue, onDemand ? mQueueIndex : -1,
+                snapshot.getTrack(), resume, Math.max(0, positionMs), mBufferProfile.getName(), System.currentTimeMillis()));
+    }
+
+    private void handlePlay(long receivedAt) {
+        if (!mSnapshot.hasMedia()) return;
+        // asked to play again, e.g. from the notification
+        mTaskRemoved = false;
+        // whichever player comes next, it plays at the live edge
+        releaseTimeShift();
+        mMetrics.onCommand(getMetricsKey(), mBufferProfile.getName(), receivedAt);
+        superviseCurrentStream();
+        // the parked player is taken before the current one is parked in its place, the current one
+        // matches when the same station is played again
+        PlayerEngine idle = null;
+        if (REUSE_PLAYER) {
+            idle = takeIdlePlayer();
+            parkPlayer();
+            if (idle == null) {
+                idle = takeIdlePlayer();
+            }
+        }
+        // live stations play through TritonPlayer, on-demand items through the lighter ExoPlayer engine
+        if (mSnapshot.getOnDemandStream() != null) {
+            releasePlayer();
+            playOnDemand();
+            showNotification();
+            return;
+        }
+        if (swapToStandby()) {
+            // a connected standby beats a parked player that still has to connect
+            if (idle != null) {
+                idle.release();
+            }
+            mMetrics.onPlayerReused();
+            showNotification();
+            return;
+        }
+        if (idle != null) {
+            mMetrics.onPlayerReused();
+            releasePlayer();
+            mPlayer = idle;
+            mPlayer.setListener(this);
+            startPlayback();
+        } else {
+            releasePlayer();
+            playMedia();
+        }
+        showNotification();
+    }
+
+    private void superviseCurrentStream() {
+        if (AUTO_RECONNECT && mSnapshot.getStream() != null) {
+            mReconnectSupervisor.start();
+        } else {
+            mReconnectSupervisor.cancel();
+        }
+    }
+
+    private final ReconnectSupervisor.Reconnector mReconnector = new ReconnectSupervisor.Reconnector() {
+        @Override
+        public boolean reconnect(int attempt) {
+            Stream stream = mSnapshot.getStream();
+            if (stream == null) return false;
+
+            Log.i(TAG, "Reconnecting " + stream.getTritonMount() + ", attempt " + attempt);
+            mMetrics.onReconnectAttempt();
+            // a fresh player, whatever failed may be stuck in the old one
+            releasePlayer();
+            playMedia();
+            return true;
+        }
+
+        @Override
+        public void onRecovered(int attempts, long elapsedMs) {
+            Log.i(TAG, "Reconnected after " + attempts + " attempt(s) in " + elapsedMs + "ms");
+            mMetrics.onReconnected(elapsedMs);
+        }
+
+        @Override
+        public void onGaveUp(int attempts) {
+            Log.w(TAG, "Giving up reconnecting after " + attempts + " attempt(s)");
+            mMetrics.onReconnectFailed();
+        }
+    };
+
 
     public void stop() {
-        if (!isPlaying() || mPlayer == null) return;
-        mCurrentTrack = null;
-        mPlayer.stop();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                handleStop();
+            }
+        });
     }
 
-    public int getState() {
-        if (mPlayer == null) {
-            return -1;
+    private void handleStop() {
+        cancelPendingPlay();
+        mAudioFocus.reset();
+        mReconnectSupervisor.cancel();
+        stopTimeShift();
+        if (!isPlaying()) return;
+        mMetadata.reset();
+        publish(mSnapshot.withTrack(null));
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.stop();
+        } else if (mPlayer != null) {
+            mPlayer.stop();
         }
-        return mPlayer.getState();
+    }
+
+    public int getState() {
+        return mSnapshot.getState();
+    }
+
+    public PlaybackSnapshot getSnapshot() {
+        return mSnapshot;
     }
 
     private void releasePlayer() {
-        if (mPlayer == null) return;
-        int state = mPlayer.getState();
-        if (state == TritonPlayer.STATE_CONNECTING || state == TritonPlayer.STATE_PLAYING || state == TritonPlayer.STATE_PAUSED) {
-            mPlayer.stop();
+        // first, a time-shift reader blocked waiting for audio would hold up the player's release
+        releaseTimeShift();
+        if (mPlayer == null && mOnDemandPlayer == null) return;
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.release();
+            mOnDemandPlayer = null;
         }
-        mPlayer.release();
-        mPlayer = null;
+        if (mPlayer != null) {
+            int state = mPlayer.getState();
+            if (state == TritonPlayer.STATE_CONNECTING || state == TritonPlayer.STATE_PLAYING || state == TritonPlayer.STATE_PAUSED) {
+                mPlayer.stop();
+            }
+            mPlayer.release();
+            mPlayer = null;
+        }
+        publish(mSnapshot.withState(PlaybackSnapshot.STATE_IDLE));
     }
 
     public void pause() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                handlePause();
+            }
+        });
+    }
+
+    private void handlePause() {
+        cancelPendingPlay();
+        mAudioFocus.reset();
+        pausePlayer();
+    }
+
+    private void pausePlayer() {
+        mReconnectSupervisor.cancel();
         if (!isPlaying()) return;
-        mPlayer.pause();
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.pause();
+        } else {
+            // read before the pause, the SDK may let go of its server
+            String url = mPlayer.getStreamUrl();
+            mPlayer.pause();
+            startTimeShift(url);
+        }
+        if (mTimeShift != null) {
+            mPlaybackHandler.postDelayed(mTimeShiftExpiredRunnable, TIME_SHIFT_MAX_MS);
+        }
     }
 
     public void unPause() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                handleUnPause();
+            }
+        });
+    }
+
+    private void handleUnPause() {
         if (isPlaying()) return;
-        AudioManager audioManager = getAudioManager();
-        if (audioManager != null) {
-            int result = audioManager.requestAudioFocus(PlayerService.this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
-            if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-                mPlayer.play();
+        if (mPlayer == null && mOnDemandPlayer == null) {
+            // the time-shift recording ended while paused in it
+            if (mSnapshot.getStream() != null) {
+                handlePlay(SystemClock.elapsedRealtime());
             }
+            return;
         }
+        mPlaybackHandler.removeCallbacks(mTimeShiftExpiredRunnable);
+        superviseCurrentStream();
+        if (mTimeShift != null && mOnDemandPlayer == null) {
+            playTimeShift();
+        }
+        startPlayback();
         showNotification();
     }
 
+    /**
+     * Leaves a time-shifted stream for the live edge. Nothing happens when the stream is not time-shifted.
+     */
+    public void jumpToLive() {
+        final long receivedAt = SystemClock.elapsedRealtime();
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mTimeShift == null) return;
+                cancelPendingPlay();
+                handlePlay(receivedAt);
+            }
+        });
+    }
+
+    /**
+     * @return true while a live stream is recorded for, or played from, the time-shift buffer
+     */
+    public boolean isTimeShifted() {
+        return mTimeShift != null;
+    }
+
+    /**
+     * @return how far a time-shifted stream is behind the live edge in ms, 0 when it is not time-shifted
+     */
+    public long getBehindLiveMs() {
+        TimeShiftBuffer timeShift = mTimeShift;
+        if (timeShift == null) return 0;
+        // paused, the recording is not played yet
+        OnDemandPlayer player = mOnDemandPlayer;
+        return timeShift.getBehindLiveMs(player != null ? player.getPosition() : 0);
+    }
+
+    /**
+     * @param url the paused player's stream URL, null when it never got a server and resumes at the live edge anyway
+     */
+    private void startTimeShift(@Nullable String url) {
+        if (!TIME_SHIFT || mTimeShift != null || url == null || mSnapshot.getStream() == null) return;
+        File dir = new File(getCacheDir(), "timeshift");
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        // each recording gets its own spill file, the previous recorder may still be closing its own
+        mTimeShift = new TimeShiftBuffer(url, new File(dir, "spill-" + (++mTimeShiftCount)), TIME_SHIFT_MAX_MS);
+        mTimeShift.start();
+    }
+
+    /**
+     * Replaces the paused live player with one that plays the recording from where the stream was paused.
+     */
+    private void playTimeShift() {
+        PlayerEngine live = mPlayer;
+        mPlayer = null;
+        live.setListener(null);
+        live.release();
+        List<String> urls = Collections.singletonList(mTimeShift.getUrl());
+        mOnDemandPlayer = new OnDemandPlayer(this, mPlaybackHandler.getLooper(), mTimeShift.getDataSourceFactory(), urls, 0,
+                mBufferProfile, mOnDemandListener);
+    }
+
+    /**
+     * A stop ends the time-shifted session, the next play starts at the live edge.
+     */
+    private void stopTimeShift() {
+        if (mTimeShift == null) return;
+        releaseTimeShift();
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.stop();
+            mOnDemandPlayer.release();
+            mOnDemandPlayer = null;
+        }
+    }
+
+    private void releaseTimeShift() {
+        mPlaybackHandler.removeCallbacks(mTimeShiftExpiredRunnable);
+        if (mTimeShift != null) {
+            mTimeShift.release();
+            mTimeShift = null;
+        }
+    }
+
+    private final Runnable mTimeShiftExpiredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "Paused longer than the time-shift limit, resuming at the live edge");
+            // paused in the recording, its player goes too and unPause() connects a new live one
+            stopTimeShift();
+        }
+    };
+
+    public void prewarm(final Stream stream) {
+        if (stream == null) return;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Stream current = mSnapshot.getStream();
+                if (current != null && current.getTritonMount() != null && current.getTritonMount().equals(stream.getTritonMount())) return;
+                mStandbyPool.prewarm(stream);
+            }
+        });
+    }
+
+    public void seekTo(final long positionMs) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnDemandPlayer != null) {
+                    mOnDemandPlayer.seekTo(positionMs);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the position in the current on-demand item in ms, -1 for live streams or when nothing plays
+     */
+    public long getPosition() {
+        OnDemandPlayer player = mOnDemandPlayer;
+        return player != null ? player.getPosition() : -1;
+    }
+
+    /**
+     * @return the duration of the current on-demand item in ms, -1 when unknown, live or nothing plays
+     */
+    public long getDuration() {
+        OnDemandPlayer player = mOnDemandPlayer;
+        return player != null ? player.getDuration() : -1;
+    }
+
+    public boolean isSeekable() {
+        OnDemandPlayer player = mOnDemandPlayer;
+        return player != null && player.isSeekable();
+    }
+
+    /**
+     * Warms the on-demand cache with the first bytes of an item, so playing it later starts from disk.
+     */
+    public void prefetchOnDemand(String url, long bytes) {
+        OnDemandCache.get(this).prefetch(url, bytes);
+    }
+
     public void quit() {
-        stop();
-        mBuilder = null;
-        stopForeground(true);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mStandbyPool.clear();
+                clearIdlePlayer();
+                handleStop();
+                hideNotification();
+                saveSession(false);
+            }
+        });
     }
 
     public Stream getCurrentStream() {
-        return mCurrentStream;
+        return mSnapshot.getStream();
     }
 
     public Track getCurrentTrack() {
-        return mCurrentTrack;
+        return mSnapshot.getTrack();
+    }
+
+    /**
+     * @return recently played tracks for the mount, newest first; the current stream when mount is null
+     */
+    public List<TrackHistory.Entry> getTrackHistory(@Nullable String mount) {
+        if (mount == null && mSnapshot.getStream() != null) {
+            mount = mSnapshot.getStream().getTritonMount();
+        }
+        return mTrackHistory.get(mount);
     }
 
     @Nullable
@@ -243,109 +1175,269 @@ public class PlayerService extends Service implements TritonPlayer.OnCuePointRec
     }
 
     @Override
-    public void onCuePointReceived(MediaPlayer mediaPlayer, Bundle cuePoint) {
+    public void onCuePointReceived(final PlayerEngine engine, final Bundle cuePoint) {
         if (cuePoint == null) return;
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (engine == mPlayer) {
+                    handleCuePoint(cuePoint);
+                }
+            }
+        });
+    }
 
+    private void handleCuePoint(Bundle cuePoint) {
+        Track track = mMetadata.onCuePoint(cuePoint);
+        if (track != null) {
+            publishTrack(track);
+        } else if (mMetadata.wasDuplicate()) {
+            mMetrics.onDuplicateMetadata();
+        }
+    }
 
-        String cueType = cuePoint.getString("cue_type", null);
-        if (cueType == null) return;
-        switch (cueType) {
-            case CUE_TYPE_TRACK:
-                if (cuePoint.containsKey("cue_title") && cuePoint.containsKey("track_artist_name")) {
-                    String artist = cuePoint.getString("track_artist_name");
-                    String song = cuePoint.getString("cue_title");
-                    int duration = cuePoint.getInt("cue_time_duration", 0);
-
-                    mCurrentTrack = new Track(song, artist, duration);
-
-                    mRemoteViews.setTextViewText(R.id.song_title, mCurrentTrack.getTitle());
-                    mRemoteViews.setTextViewText(R.id.station_artist, mCurrentTrack.getArtist());
+    private void handleMetaData(Bundle metaData) {
+        Track track = mMetadata.onMetaData(metaData);
+        if (track != null) {
+            publishTrack(track);
+        } else if (mMetadata.wasDuplicate()) {
+            mMetrics.onDuplicateMetadata();
+        }
+    }
 
-                    if (mNotificationManager != null && mBuilder != null) {
-                        mNotificationManager.notify(NOTIFICATION_SERVICE, mBuilder.build());
-                    }
+    private void publishTrack(Track track) {
+        publish(mSnapshot.withTrack(track));
+        if (!track.isAds() && mSnapshot.getStream() != null) {
+            mTrackHistory.record(mSnapshot.getStream().getTritonMount(), track.getTitle(), track.getArtist(),
+                    track.getDuration(), System.currentTimeMillis());
+        }
 
-                    notifyTrackUpdate();
-                }
-                break;
-            case CUE_TYPE_AD:
-                mCurrentTrack = new Track(true);
-                mRemoteViews.setTextViewText(R.id.song_title, "Reclame");
-                mRemoteViews.setTextViewText(R.id.station_artist, "Reclame");
-
-                if (mNotificationManager != null && mBuilder != null) {
-                    mNotificationManager.notify(NOTIFICATION_SERVICE, mBuilder.build());
-                }
+        updateNotification();
+        notifyTrackUpdate();
+    }
 
-                notifyTrackUpdate();
-                break;
+    public void addListener(OnPlayerEventListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
         }
     }
 
+    public void removeListener(OnPlayerEventListener listener) {
+        mListeners.remove(listener);
+    }
+
     private void notifyTrackUpdate() {
-        Intent intent = new Intent(EVENT_TRACK_CHANGED);
-        intent.putExtra(ARG_TRACK, mCurrentTrack);
-        sendBroadcast(intent);
+        Track track = mSnapshot.getTrack();
+        for (OnPlayerEventListener listener : mListeners) {
+            listener.onTrackChanged(track);
+        }
+
+        if (BROADCAST_EVENTS) {
+            Intent intent = new Intent(EVENT_TRACK_CHANGED);
+            intent.putExtra(ARG_TRACK, (Parcelable) track);
+            sendBroadcast(intent);
+        }
     }
 
     private void notifyStationUpdate() {
-        Intent intent = new Intent(EVENT_STREAM_CHANGED);
-        intent.putExtra(ARG_STREAM, mCurrentStream);
-        sendBroadcast(intent);
+        Stream stream = mSnapshot.getStream();
+        for (OnPlayerEventListener listener : mListeners) {
+            listener.onStreamChanged(stream);
+        }
+
+        if (BROADCAST_EVENTS) {
+            Intent intent = new Intent(EVENT_STREAM_CHANGED);
+            intent.putExtra(ARG_STREAM, (Parcelable) stream);
+            sendBroadcast(intent);
+        }
+    }
+
+    private void notifyQueueIndexUpdate(int index) {
+        for (OnPlayerEventListener listener : mListeners) {
+            listener.onQueueIndexChanged(index);
+        }
+
+        if (BROADCAST_EVENTS) {
+            Intent intent = new Intent(EVENT_QUEUE_INDEX_CHANGED);
+            intent.putExtra(ARG_ON_DEMAND_STREAM, (Parcelable) mSnapshot.getOnDemandStream());
+            intent.putExtra(ARG_QUEUE_INDEX, index);
+            sendBroadcast(intent);
+        }
     }
 
     private void notifyStateUpdate(int state) {
-        Intent intent = new Intent(EVENT_STATE_CHANGED);
-        intent.putExtra(ARG_STREAM, mCurrentStream);
-        intent.putExtra(ARG_STATE, state);
-        sendBroadcast(intent);
+        for (OnPlayerEventListener listener : mListeners) {
+            listener.onStateChanged(state);
+        }
+
+        if (BROADCAST_EVENTS) {
+            Intent intent = new Intent(EVENT_STATE_CHANGED);
+            intent.putExtra(ARG_STREAM, (Parcelable) mSnapshot.getStream());
+            intent.putExtra(ARG_STATE, state);
+            sendBroadcast(intent);
+        }
     }
 
     @Override
-    public void onStateChanged(MediaPlayer mediaPlayer, int state) {
+    public void onStateChanged(final PlayerEngine engine, final int state) {
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (engine == mPlayer) {
+                    handleStateChanged(state);
+                }
+            }
+        });
+    }
+
+    private void handleStateChanged(int state) {
+        if (!isValidTransition(mSnapshot.getState(), state)) return;
+        publish(mSnapshot.withState(state));
+        mMetrics.onStateChanged(state, SystemClock.elapsedRealtime());
+        mReconnectSupervisor.onStateChanged(state);
+
         final Integer[] states = {TritonPlayer.STATE_COMPLETED, TritonPlayer.STATE_STOPPED, TritonPlayer.STATE_ERROR, TritonPlayer.STATE_PAUSED};
         if (Arrays.asList(states).contains(state)) {
-            AudioManager audioManager = getAudioManager();
-            if (audioManager != null) {
-                audioManager.abandonAudioFocus(this);
-            }
+            mAudioFocus.abandon();
+        }
+        if (state == TritonPlayer.STATE_PLAYING) {
+            // a player that came up during a transient loss, TritonPlayer's inner player after a reconnect,
+            // or a reused player that was parked while ducked
+            setPlayerVolume(mAudioFocus.getVolume());
         }
         updateNotification();
         notifyStateUpdate(state);
     }
 
     @Override
-    public void onMetaDataReceived(MediaPlayer mediaPlayer, Bundle bundle) {
-        if (bundle == null) return;
+    public void onInfo(final PlayerEngine engine, final int what) {
+        if (what != MediaPlayer.INFO_BUFFERING_START && what != MediaPlayer.INFO_BUFFERING_COMPLETED) return;
+
+        final long now = SystemClock.elapsedRealtime();
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (engine == mPlayer) {
+                    handleBuffering(what == MediaPlayer.INFO_BUFFERING_START, now);
+                }
+            }
+        });
     }
 
+    private void handleBuffering(boolean started, long now) {
+        if (started) {
+            mMetrics.onBufferingStart(now);
+            mReconnectSupervisor.onBufferingStart();
+        } else {
+            mMetrics.onBufferingCompleted(now);
+            mReconnectSupervisor.onBufferingCompleted();
+        }
+    }
+
+    private final OnDemandPlayer.Listener mOnDemandListener = new OnDemandPlayer.Listener() {
+        @Override
+        public void onStateChanged(OnDemandPlayer player, int state) {
+            if (player == mOnDemandPlayer) {
+                handleStateChanged(state);
+            }
+        }
+
+        @Override
+        public void onInfo(OnDemandPlayer player, int what) {
+            if (player == mOnDemandPlayer) {
+                handleBuffering(what == MediaPlayer.INFO_BUFFERING_START, SystemClock.elapsedRealtime());
+            }
+        }
+
+        @Override
+        public void onItemChanged(OnDemandPlayer player, int index) {
+            if (player != mOnDemandPlayer || index >= mQueue.size()) return;
+            mQueueIndex = index;
+            publish(mSnapshot.withOnDemandStream(mQueue.get(index)));
+            notifyQueueIndexUpdate(index);
+        }
+    };
+
     @Override
-    public void onAudioFocusChange(int focusChange) {
-        switch (focusChange) {
-            case AudioManager.AUDIOFOCUS_LOSS:
-                pause();
-                break;
-            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-                pause();
-                break;
-            case AudioManager.AUDIOFOCUS_GAIN:
-                unPause();
-                break;
+    public void onMetaDataReceived(final PlayerEngine engine, final Bundle metaData) {
+        if (metaData == null) return;
+        runOnPlaybackThread(new Runnable() {
+            @Override
+            public void run() {
+                if (engine == mPlayer) {
+                    handleMetaData(metaData);
+                }
+            }
+        });
+    }
+
+    private void setPlayerVolume(float volume) {
+        if (mOnDemandPlayer != null) {
+            mOnDemandPlayer.setVolume(volume);
+        } else if (mPlayer != null) {
+            mPlayer.setVolume(volume);
         }
     }
 
+    // Called on the playback thread
+    private final AudioFocusPolicy.Target mFocusTarget = new AudioFocusPolicy.Target() {
+        @Override
+        public boolean isLive() {
+            return mPlayer != null;
+        }
+
+        @Override
+        public void setVolume(float volume) {
+            setPlayerVolume(volume);
+        }
+
+        @Override
+        public void pause() {
+            pausePlayer();
+        }
+
+        @Override
+        public void resume() {
+            handleUnPause();
+        }
+
+        @Override
+        public void onFocusLoss() {
+            mMetrics.onFocusLoss();
+        }
+
+        @Override
+        public void onReconnectAvoided() {
+            mMetrics.onReconnectAvoided();
+        }
+    };
+
     public class LocalBinder extends Binder {
         public PlayerService getService() {
             return PlayerService.this;
         }
     }
 
+    /**
+     * Player events for clients bound through {@link LocalBinder}. Called on the playback thread.
+     */
+    public interface OnPlayerEventListener {
+
+        void onStreamChanged(Stream stream);
+
+        void onTrackChanged(Track track);
+
+        void onStateChanged(int state);
+
+        void onQueueIndexChanged(int index);
+    }
+
     public void showNotification() {
         if (isShowingNotification()) {
             return;
         }
         if (!IS_NOTIF_ACTIVE){
-            return 
+            return;
         }
 
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -366,10 +1458,17 @@ public class PlayerService extends Service implements TritonPlayer.OnCuePointRec
         }
 
         int layout;
+        int clearDrawable;
         if(PlayerService.BRAND.equals("slam")) {
             layout = R.layout.slam_player_small;
+            mPauseDrawable = R.drawable.icon_state_pause_slam;
+            mPlayDrawable = R.drawable.icon_state_play_slam;
+            clearDrawable = R.drawable.ic_close_white_slam;
         } else {
             layout = R.layout.nl100_player_small;
+            mPauseDrawable = R.drawable.icon_state_pause_nl100;
+            mPlayDrawable = R.drawable.icon_state_play_nl100;
+            clearDrawable = R.drawable.ic_close_nl100;
         }
         mRemoteViews = new RemoteViews(getPackageName(), layout);
         mBuilder = new NotificationCompat.Builder(this, DEFAULT_CHANNEL);
@@ -379,96 +1478,233 @@ public class PlayerService extends Service implements TritonPlayer.OnCuePointRec
                 .setSound(null)
                 .setCustomContentView(mRemoteViews)
                 .setOngoing(true)
+                .setOnlyAlertOnce(true)
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
                 .setSmallIcon(R.drawable.ic_player_notification); //small icon
+
+        createPendingIntents();
+        mRemoteViews.setImageViewResource(R.id.station_exit_image, clearDrawable);
+        mRemoteViews.setOnClickPendingIntent(R.id.station_exit, mQuitPendingIntent);
+        PendingIntent contentIntent = createContentIntent();
+        if (contentIntent != null) {
+            mRemoteViews.setOnClickPendingIntent(R.id.notification_clickable_content, contentIntent);
+        }
+        mShownPlayback = -1;
+        mShownTitle = null;
+        mShownArtist = null;
+        mShownCoverUrl = null;
+
+        applyNotificationState();
         startForeground(NOTIFICATION_SERVICE, mBuilder.build());
+        mLastNotifyAt = SystemClock.elapsedRealtime();
+        mNotifyCount++;
+    }
 
-        updateNotification();
+    private void createPendingIntents() {
+        Intent stopIntent = new Intent(this, PlayerService.class);
+        stopIntent.setAction(ACTION_STOP);
+        mStopPendingIntent = PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Intent quitIntent = new Intent(this, PlayerService.class);
+        quitIntent.setAction(ACTION_QUIT);
+        mQuitPendingIntent = PendingIntent.getService(this, 0, quitIntent, 0);
+
+        Intent playIntent = new Intent(this, PlayerService.class);
+        //playIntent.putExtra(ARG_STATION, mCurrentStation);
+        playIntent.setAction(ACTION_PLAY);
+        mPlayPendingIntent = PendingIntent.getService(this, 0, playIntent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
-    private void updateNotification() {
-        if (isShowingNotification()) {
-            Intent stopIntent = new Intent(this, PlayerService.class);
-            stopIntent.setAction(ACTION_STOP);
-            PendingIntent pausePendingIntent = PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-            Intent quitIntent = new Intent(this, PlayerService.class);
-            quitIntent.setAction(ACTION_QUIT);
-            PendingIntent pendingQuitIntent = PendingIntent.getService(this, 0, quitIntent, 0);
-
-            Intent playIntent = new Intent(this, PlayerService.class);
-            //playIntent.putExtra(ARG_STATION, mCurrentStation);
-            playIntent.setAction(ACTION_PLAY);
-            PendingIntent playPendingIntent = PendingIntent.getService(this, 0, playIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                ActivityManager activityManager = (ActivityManager) this.getSystemService(ACTIVITY_SERVICE);
-                if (activityManager != null) {
-                    Intent target = null;
-                    List<ActivityManager.AppTask> taskList = activityManager.getAppTasks();
-                    for (ActivityManager.AppTask appTask : taskList) {
-                        ActivityManager.RecentTaskInfo taskInfo = appTask.getTaskInfo();
-                        if (taskInfo.baseIntent.getComponent() != null && taskInfo.baseIntent.getComponent().getPackageName().equals(getPackageName())) {
-                            target = taskInfo.baseIntent;
-                            target.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                            break;
-                        }
+    @Nullable
+    private PendingIntent createContentIntent() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ActivityManager activityManager = (ActivityManager) this.getSystemService(ACTIVITY_SERVICE);
+            if (activityManager != null) {
+                Intent target = null;
+                List<ActivityManager.AppTask> taskList = activityManager.getAppTasks();
+                for (ActivityManager.AppTask appTask : taskList) {
+                    ActivityManager.RecentTaskInfo taskInfo = appTask.getTaskInfo();
+                    if (taskInfo.baseIntent.getComponent() != null && taskInfo.baseIntent.getComponent().getPackageName().equals(getPackageName())) {
+                        target = taskInfo.baseIntent;
+                        target.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                        break;
                     }
+                }
 
-                    if (target != null) {
-                        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, target, PendingIntent.FLAG_UPDATE_CURRENT);
-                        mRemoteViews.setOnClickPendingIntent(R.id.notification_clickable_content, contentIntent);
-                    }
+                if (target != null) {
+                    return PendingIntent.getActivity(this, 0, target, PendingIntent.FLAG_UPDATE_CURRENT);
                 }
             }
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    void hideNotification() {
+        mPlaybackHandler.removeCallbacks(mNotifyRunnable);
+        mNotifyScheduled = false;
+        mBuilder = null;
+        mRemoteViews = null;
+        stopForeground(true);
+    }
+
+    private void updateNotification() {
+        if (!isShowingNotification()) return;
+        boolean changed = applyNotificationState();
+        if (!changed) {
+            mNotifySkipped++;
+            return;
+        }
+
+        long sinceLast = SystemClock.elapsedRealtime() - mLastNotifyAt;
+        if (sinceLast >= NOTIFICATION_MIN_INTERVAL_MS && !mNotifyScheduled) {
+            postNotification();
+        } else if (!mNotifyScheduled) {
+            mNotifyScheduled = true;
+            mPlaybackHandler.postDelayed(mNotifyRunnable, NOTIFICATION_MIN_INTERVAL_MS - sinceLast);
+        } else {
+            // folded into the notify that is already scheduled
+            mNotifySkipped++;
+        }
+    }
+
+    /**
+     * Applies the current playback state and track to the RemoteViews, touching only what changed.
+     *
+     * @return whether anything changed
+     */
+    private boolean applyNotificationState() {
+        // use right actions depending on playstate
+        int playback;
+        if (isConnecting()) {
+            playback = TritonPlayer.STATE_CONNECTING;
+        } else if (isPlaying()) {
+            playback = TritonPlayer.STATE_PLAYING;
+        } else {
+            playback = TritonPlayer.STATE_STOPPED;
+        }
+
+        String title = mShownTitle;
+        String artist = mShownArtist;
+        Track track = mSnapshot.getTrack();
+        Stream stream = mSnapshot.getStream();
+        if (track != null && track.isAds()) {
+            title = "Reclame";
+            artist = "Reclame";
+        } else if (track != null) {
+            title = track.getTitle();
+            artist = track.getArtist();
+        } else if (stream != null && stream.getTitle() != null && !stream.getTitle().isEmpty()) {
+            // no cue yet, name the station instead
+            title = stream.getTitle();
+            artist = stream.getDescription() != null ? stream.getDescription() : "";
+        } else if (playback != TritonPlayer.STATE_PLAYING) {
+            title = "-";
+            artist = "-";
+        }
 
-            // use right actions depending on playstate
-            if (isConnecting()) {
+        boolean changed = false;
+        if (playback != mShownPlayback) {
+            mShownPlayback = playback;
+            changed = true;
+            if (playback == TritonPlayer.STATE_CONNECTING) {
                 mRemoteViews.setViewVisibility(R.id.station_progress_bar, View.VISIBLE);
                 mRemoteViews.setViewVisibility(R.id.station_play_pause_button, View.GONE);
-            } else if (isPlaying()) {
+            } else if (playback == TritonPlayer.STATE_PLAYING) {
                 mRemoteViews.setViewVisibility(R.id.station_progress_bar, View.GONE);
                 mRemoteViews.setViewVisibility(R.id.station_play_pause_button, View.VISIBLE);
-
-                int pauseDrawable;
-                if(PlayerService.BRAND.equals("slam")) {
-                    pauseDrawable = R.drawable.icon_state_pause_slam;
-                } else {
-                    pauseDrawable = R.drawable.icon_state_pause_nl100;
-                }
-                mRemoteViews.setOnClickPendingIntent(R.id.station_play_pause_button, pausePendingIntent);
-                mRemoteViews.setImageViewResource(R.id.station_audio_image, pauseDrawable);
+                mRemoteViews.setOnClickPendingIntent(R.id.station_play_pause_button, mStopPendingIntent);
+                mRemoteViews.setImageViewResource(R.id.station_audio_image, mPauseDrawable);
             } else {
                 mRemoteViews.setViewVisibility(R.id.station_progress_bar, View.GONE);
                 mRemoteViews.setViewVisibility(R.id.station_play_pause_button, View.VISIBLE);
+                mRemoteViews.setOnClickPendingIntent(R.id.station_play_pause_button, mPlayPendingIntent);
+                mRemoteViews.setImageViewResource(R.id.station_audio_image, mPlayDrawable);
+            }
+        }
+        if (title != null && !title.equals(mShownTitle)) {
+            mShownTitle = title;
+            mRemoteViews.setTextViewText(R.id.song_title, title);
+            changed = true;
+        }
+        if (artist != null && !artist.equals(mShownArtist)) {
+            mShownArtist = artist;
+            mRemoteViews.setTextViewText(R.id.station_artist, artist);
+            changed = true;
+        }
 
-                int playDrawable;
-                if(PlayerService.BRAND.equals("slam")) {
-                    playDrawable = R.drawable.icon_state_play_slam;
-                } else {
-                    playDrawable = R.drawable.icon_state_play_nl100;
+        String coverUrl = track != null && !track.isAds() ? track.getCoverUrl() : null;
+        if (coverUrl == null ? mShownCoverUrl != null : !coverUrl.equals(mShownCoverUrl)) {
+            Bitmap cover = coverUrl != null ? mArtworkLoader.getCached(coverUrl) : null;
+            if (cover != null) {
+                mRemoteViews.setImageViewBitmap(R.id.station_cover, cover);
+                mRemoteViews.setViewVisibility(R.id.station_cover, View.VISIBLE);
+                mShownCoverUrl = coverUrl;
+                changed = true;
+            } else {
+                if (mShownCoverUrl != null) {
+                    mRemoteViews.setViewVisibility(R.id.station_cover, View.GONE);
+                    mShownCoverUrl = null;
+                    changed = true;
+                }
+                if (coverUrl != null) {
+                    mArtworkLoader.load(coverUrl, mArtworkCallback);
                 }
-                mRemoteViews.setOnClickPendingIntent(R.id.station_play_pause_button, playPendingIntent);
-                mRemoteViews.setImageViewResource(R.id.station_audio_image, playDrawable);
             }
+        }
+        return changed;
+    }
 
-            if (!isPlaying() && mCurrentTrack == null) {
-                mRemoteViews.setTextViewText(R.id.song_title, "-");
-                mRemoteViews.setTextViewText(R.id.station_artist, "-");
-            }
+    private final ArtworkLoader.Callback mArtworkCallback = new ArtworkLoader.Callback() {
+        @Override
+        public void onArtworkLoaded(String url, Bitmap bitmap) {
+            // applies it if the track is still current
+            updateNotification();
+        }
+    };
+
+    private void postNotification() {
+        mNotifyScheduled = false;
+        if (!isShowingNotification()) return;
+        mLastNotifyAt = SystemClock.elapsedRealtime();
+        mNotifyCount++;
+        mNotificationManager.notify(NOTIFICATION_SERVICE, mBuilder.build());
+    }
 
-            int clearDrawable;
-            if(PlayerService.BRAND.equals("slam")) {
-                clearDrawable = R.drawable.ic_close_white_slam;
-            } else {
-                clearDrawable = R.drawable.ic_close_nl100;
-            }
+    private final Runnable mNotifyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            postNotification();
+        }
+    };
 
-            mRemoteViews.setImageViewResource(R.id.station_exit_image, clearDrawable);
-            mRemoteViews.setOnClickPendingIntent(R.id.station_exit, pendingQuitIntent);
+    /**
+     * @return the playback timings per stream mount, see {@link PlaybackMetrics}
+     */
+    public Map<String, PlaybackMetrics.MountMetrics> getPlaybackMetrics() {
+        return mMetrics.snapshot();
+    }
 
-            mNotificationManager.notify(NOTIFICATION_SERVICE, mBuilder.build());
+    /**
+     * @return the same timings summed per {@link BufferProfile} name, to compare the profiles
+     */
+    public Map<String, PlaybackMetrics.MountMetrics> getBufferProfileMetrics() {
+        return mMetrics.snapshotByProfile();
+    }
+
+    private String getMetricsKey() {
+        Stream stream = mSnapshot.getStream();
+        if (stream != null && stream.getTritonMount() != null) {
+            return stream.getTritonMount();
         }
+        return PlaybackMetrics.KEY_ON_DEMAND;
+    }
+
+    /**
+     * Notification IPCs issued and avoided (unchanged content or folded into a pending update).
+     */
+    public int[] getNotificationStats() {
+        return new int[]{mNotifyCount, mNotifySkipped};
     }
 
     public boolean isShowingNotification() {
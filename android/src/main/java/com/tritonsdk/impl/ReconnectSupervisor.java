@@ -0,0 +1,189 @@
+package com.tritonsdk.impl;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.tritondigital.player.TritonPlayer;
+
+import java.util.Random;
+
+/**
+ * Brings a live stream back after a failure. An error, or a connect or rebuffer that takes too long,
+ * schedules a reconnect with jittered exponential backoff until the stream plays again or the
+ * attempts run out. It only sees player states and buffering hints and only talks back through
+ * {@link Reconnector}, so it does not care which player sits behind it.
+ * <p>
+ * Must be used from the thread of the handler it is given.
+ */
+class ReconnectSupervisor {
+
+    interface Reconnector {
+        /**
+         * Rebuilds the player for the current stream.
+         *
+         * @return false when there is nothing to reconnect, which stops the supervisor
+         */
+        boolean reconnect(int attempt);
+
+        void onRecovered(int attempts, long elapsedMs);
+
+        void onGaveUp(int attempts);
+    }
+
+    static final int DEFAULT_MAX_ATTEMPTS = 6;
+    static final long DEFAULT_BASE_DELAY_MS = 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 30000;
+    static final long DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+    static final long DEFAULT_STALL_TIMEOUT_MS = 10000;
+
+    private final Handler mHandler;
+    private final Reconnector mReconnector;
+    private final Random mRandom;
+    private final int mMaxAttempts;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+    private final long mConnectTimeoutMs;
+    private final long mStallTimeoutMs;
+
+    private boolean mActive;
+    private boolean mRetryScheduled;
+    private boolean mInReconnect;
+    private int mAttempts;
+    // first failure of the current outage, 0 while healthy
+    private long mFailedAt;
+
+    ReconnectSupervisor(Handler handler, Reconnector reconnector) {
+        this(handler, reconnector, new Random(), DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+                DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_STALL_TIMEOUT_MS);
+    }
+
+    ReconnectSupervisor(Handler handler, Reconnector reconnector, Random random, int maxAttempts, long baseDelayMs,
+                        long maxDelayMs, long connectTimeoutMs, long stallTimeoutMs) {
+        mHandler = handler;
+        mReconnector = reconnector;
+        mRandom = random;
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mConnectTimeoutMs = connectTimeoutMs;
+        mStallTimeoutMs = stallTimeoutMs;
+    }
+
+    /**
+     * Starts supervising a stream the user asked to play, forgetting any earlier outage.
+     */
+    void start() {
+        cancel();
+        mActive = true;
+    }
+
+    /**
+     * Stops supervising, e.g. because the user stopped or paused playback.
+     */
+    void cancel() {
+        mActive = false;
+        mRetryScheduled = false;
+        mAttempts = 0;
+        mFailedAt = 0;
+        mHandler.removeCallbacks(mRetryRunnable);
+        mHandler.removeCallbacks(mStallRunnable);
+    }
+
+    void onStateChanged(int state) {
+        // the old player being torn down by our own reconnect
+        if (!mActive || mInReconnect) return;
+
+        switch (state) {
+            case TritonPlayer.STATE_CONNECTING:
+                mHandler.removeCallbacks(mStallRunnable);
+                mHandler.postDelayed(mStallRunnable, mConnectTimeoutMs);
+                break;
+            case TritonPlayer.STATE_PLAYING:
+                mHandler.removeCallbacks(mStallRunnable);
+                if (mFailedAt != 0) {
+                    int attempts = mAttempts;
+                    long elapsed = SystemClock.elapsedRealtime() - mFailedAt;
+                    mAttempts = 0;
+                    mFailedAt = 0;
+                    mReconnector.onRecovered(attempts, elapsed);
+                }
+                break;
+            case TritonPlayer.STATE_ERROR:
+            // a live stream has no end, so completing means the connection dropped
+            case TritonPlayer.STATE_COMPLETED:
+                onFailure();
+                break;
+            default:
+                mHandler.removeCallbacks(mStallRunnable);
+                break;
+        }
+    }
+
+    void onBufferingStart() {
+        if (!mActive || mRetryScheduled) return;
+        mHandler.removeCallbacks(mStallRunnable);
+        mHandler.postDelayed(mStallRunnable, mStallTimeoutMs);
+    }
+
+    void onBufferingCompleted() {
+        mHandler.removeCallbacks(mStallRunnable);
+    }
+
+    private void onFailure() {
+        mHandler.removeCallbacks(mStallRunnable);
+        if (!mActive || mRetryScheduled) return;
+
+        if (mFailedAt == 0) {
+            mFailedAt = SystemClock.elapsedRealtime();
+        }
+        if (mAttempts >= mMaxAttempts) {
+            int attempts = mAttempts;
+            cancel();
+            mReconnector.onGaveUp(attempts);
+            return;
+        }
+        mRetryScheduled = true;
+        mHandler.postDelayed(mRetryRunnable, nextDelay(mAttempts));
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the step is fixed and the other half random,
+     * so listeners dropped by the same outage do not all come back at the same moment.
+     */
+    private long nextDelay(int attempt) {
+        long step = mBaseDelayMs << Math.min(attempt, 16);
+        if (step <= 0 || step > mMaxDelayMs) step = mMaxDelayMs;
+        return step / 2 + (long) (mRandom.nextDouble() * (step / 2));
+    }
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRetryScheduled = false;
+            if (!mActive) return;
+
+            mAttempts++;
+            mInReconnect = true;
+            boolean reconnecting;
+            try {
+                reconnecting = mReconnector.reconnect(mAttempts);
+            } finally {
+                mInReconnect = false;
+            }
+            if (!reconnecting) {
+                cancel();
+                return;
+            }
+            // the new player may have reported connecting while we were ignoring states
+            mHandler.removeCallbacks(mStallRunnable);
+            mHandler.postDelayed(mStallRunnable, mConnectTimeoutMs);
+        }
+    };
+
+    private final Runnable mStallRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFailure();
+        }
+    };
+}
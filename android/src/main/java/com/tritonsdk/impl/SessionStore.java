@@ -0,0 +1,220 @@
+package com.tritonsdk.impl;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The last session of the service: what played, the on-demand queue around it, its track and whether
+ * a restart should resume it. A service the system recreated after killing the process picks playback up
+ * from here, without JS.
+ * <p>
+ * Same kind of small binary file as {@link StationCatalog}. write() encodes on the caller's thread and
+ * leaves the disk to a background thread, the caller decides how often to write. Not thread-safe,
+ * use it from one thread.
+ */
+final class SessionStore {
+
+    private static final String TAG = "SessionStore";
+    private static final int MAGIC = 0x54535331; // "TSS1"
+    private static final int VERSION = 2;
+
+    private final AtomicFile mFile;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private Session mSession;
+    private boolean mLoaded;
+
+    SessionStore(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * @return the last written session, read from disk on first use; null when there is none
+     */
+    Session load() {
+        if (!mLoaded) {
+            mLoaded = true;
+            mSession = read();
+        }
+        return mSession;
+    }
+
+    void write(Session session) {
+        mLoaded = true;
+        mSession = session;
+        if (mExecutor.isShutdown()) return;
+
+        final byte[] bytes;
+        try {
+            bytes = encode(session);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not encode the session", e);
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save(bytes);
+            }
+        });
+    }
+
+    /**
+     * Finishes the writes already queued, later ones are dropped.
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private Session read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown session format");
+            }
+            Stream stream = null;
+            if (in.readBoolean()) {
+                stream = new Stream(readString(in), readString(in), readString(in), readString(in));
+            }
+            int queueSize = in.readInt();
+            List<OnDemandStream> queue = new ArrayList<>(queueSize);
+            for (int i = 0; i < queueSize; i++) {
+                queue.add(new OnDemandStream(readString(in)));
+            }
+            int queueIndex = in.readInt();
+            Track track = null;
+            if (in.readBoolean()) {
+                track = new Track();
+                track.setTitle(readString(in));
+                track.setArtist(readString(in));
+                track.setAlbum(readString(in));
+                track.setCoverUrl(readString(in));
+                track.setDuration(in.readInt());
+                track.setAds(in.readBoolean());
+                track.setStartedAt(in.readLong());
+            }
+            boolean resume = in.readBoolean();
+            long positionMs = in.readLong();
+            String bufferProfile = readString(in);
+            long savedAt = in.readLong();
+            return new Session(stream, queue, queueIndex, track, resume, positionMs, bufferProfile, savedAt);
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the session", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] encode(Session session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeBoolean(session.stream != null);
+        if (session.stream != null) {
+            writeString(data, session.stream.getTitle());
+            writeString(data, session.stream.getDescription());
+            writeString(data, session.stream.getTritonName());
+            writeString(data, session.stream.getTritonMount());
+        }
+        data.writeInt(session.queue.size());
+        for (OnDemandStream item : session.queue) {
+            writeString(data, item.getURL());
+        }
+        data.writeInt(session.queueIndex);
+        data.writeBoolean(session.track != null);
+        if (session.track != null) {
+            writeString(data, session.track.getTitle());
+            writeString(data, session.track.getArtist());
+            writeString(data, session.track.getAlbum());
+            writeString(data, session.track.getCoverUrl());
+            data.writeInt(session.track.getDuration());
+            data.writeBoolean(session.track.isAds());
+            data.writeLong(session.track.getStartedAt());
+        }
+        data.writeBoolean(session.resume);
+        data.writeLong(session.positionMs);
+        writeString(data, session.bufferProfile);
+        data.writeLong(session.savedAt);
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    private void save(byte[] bytes) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(bytes);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save the session", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static final class Session {
+        final Stream stream;
+        // the on-demand queue and the item that played in it, empty and -1 for live streams
+        final List<OnDemandStream> queue;
+        final int queueIndex;
+        final Track track;
+        // playing or connecting when it was written, and the app let a restart resume it
+        final boolean resume;
+        // in the on-demand item, 0 for live streams
+        final long positionMs;
+        final String bufferProfile;
+        // wall clock time of the write
+        final long savedAt;
+
+        Session(Stream stream, List<OnDemandStream> queue, int queueIndex, Track track, boolean resume,
+                long positionMs, String bufferProfile, long savedAt) {
+            this.stream = stream;
+            this.queue = Collections.unmodifiableList(new ArrayList<>(queue));
+            this.queueIndex = queueIndex;
+            this.track = track;
+            this.resume = resume;
+            this.positionMs = positionMs;
+            this.bufferProfile = bufferProfile;
+            this.savedAt = savedAt;
+        }
+
+        boolean hasMedia() {
+            return stream != null || (queueIndex >= 0 && queueIndex < queue.size());
+        }
+    }
+}
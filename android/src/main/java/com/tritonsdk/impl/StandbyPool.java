@@ -0,0 +1,173 @@
+package com.tritonsdk.impl;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.tritondigital.player.MediaPlayer;
+import com.tritondigital.player.TritonPlayer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a few muted, already connecting/playing players around for stations that are likely to be
+ * played next, so a following play() can swap to one of them instead of doing a cold connect.
+ * The pool is bounded and entries that are not claimed within the idle timeout are released.
+ * Standby players are created and started on the handler passed in, which is PlayerService's playback thread.
+ */
+class StandbyPool implements PlayerEngine.Listener {
+
+    interface PlayerFactory {
+        PlayerEngine create(Stream stream);
+    }
+
+    private final PlayerFactory mFactory;
+    private final int mMaxSize;
+    private final long mIdleTimeoutMs;
+    private final Handler mHandler;
+
+    // mount -> standby, oldest first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    StandbyPool(PlayerFactory factory, Handler handler, int maxSize, long idleTimeoutMs) {
+        mFactory = factory;
+        mHandler = handler;
+        mMaxSize = maxSize;
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    synchronized void prewarm(Stream stream) {
+        if (stream == null || stream.getTritonMount() == null) return;
+
+        Entry entry = mEntries.remove(stream.getTritonMount());
+        if (entry == null) {
+            while (mEntries.size() >= mMaxSize) {
+                Iterator<Entry> oldest = mEntries.values().iterator();
+                release(oldest.next());
+                oldest.remove();
+            }
+
+            final PlayerEngine player = mFactory.create(stream);
+            player.setListener(this);
+            player.setVolume(MediaPlayer.VOLUME_MUTE);
+            entry = new Entry(player);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    player.play();
+                }
+            });
+        }
+
+        // re-insert so the most recently hinted mount is evicted last
+        entry.lastHintedAt = SystemClock.elapsedRealtime();
+        mEntries.put(stream.getTritonMount(), entry);
+        scheduleEviction();
+    }
+
+    /**
+     * Hands over the standby player for this stream, if there is a healthy one. The caller owns the
+     * returned player and is responsible for listeners, volume and release.
+     */
+    synchronized PlayerEngine take(Stream stream) {
+        if (stream == null || stream.getTritonMount() == null) return null;
+
+        Entry entry = mEntries.remove(stream.getTritonMount());
+        if (entry == null) return null;
+
+        int state = entry.player.getState();
+        if (state != TritonPlayer.STATE_CONNECTING && state != TritonPlayer.STATE_PLAYING) {
+            release(entry);
+            return null;
+        }
+
+        entry.player.setListener(null);
+        return entry.player;
+    }
+
+    synchronized void clear() {
+        mHandler.removeCallbacks(mEvictRunnable);
+        for (Entry entry : mEntries.values()) {
+            release(entry);
+        }
+        mEntries.clear();
+    }
+
+    private synchronized void evictIdle() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (now - entry.lastHintedAt >= mIdleTimeoutMs) {
+                release(entry);
+                it.remove();
+            }
+        }
+        scheduleEviction();
+    }
+
+    private void scheduleEviction() {
+        mHandler.removeCallbacks(mEvictRunnable);
+        if (!mEntries.isEmpty()) {
+            mHandler.postDelayed(mEvictRunnable, mIdleTimeoutMs);
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.player.setListener(null);
+        entry.player.release();
+    }
+
+    @Override
+    public synchronized void onStateChanged(PlayerEngine engine, int state) {
+        switch (state) {
+            case TritonPlayer.STATE_PLAYING:
+                // the inner stream player only exists once connected, so mute again to be sure
+                engine.setVolume(MediaPlayer.VOLUME_MUTE);
+                break;
+            case TritonPlayer.STATE_ERROR:
+            case TritonPlayer.STATE_COMPLETED:
+            case TritonPlayer.STATE_STOPPED:
+                Iterator<Entry> it = mEntries.values().iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    if (entry.player == engine) {
+                        release(entry);
+                        it.remove();
+                        break;
+                    }
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onCuePointReceived(PlayerEngine engine, Bundle cuePoint) {
+    }
+
+    @Override
+    public void onMetaDataReceived(PlayerEngine engine, Bundle metaData) {
+    }
+
+    @Override
+    public void onInfo(PlayerEngine engine, int what) {
+    }
+
+    private final Runnable mEvictRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictIdle();
+        }
+    };
+
+    private static class Entry {
+        final PlayerEngine player;
+        long lastHintedAt;
+
+        Entry(PlayerEngine player) {
+            this.player = player;
+        }
+    }
+}
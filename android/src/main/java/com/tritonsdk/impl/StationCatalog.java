@@ -0,0 +1,163 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The app's stations, as JS last set them, so the service can play a station and name it in the
+ * notification on its own, before the JS runtime is up. A station's mount is its id.
+ * <p>
+ * Kept in a small binary file: a header and, per station, its strings as modified UTF-8 and its
+ * state. The file is written atomically, and read on first use rather than with the process.
+ */
+public class StationCatalog {
+
+    private static final String TAG = "StationCatalog";
+    private static final String FILE_NAME = "stations.bin";
+    private static final int MAGIC = 0x54534331; // "TSC1"
+    private static final int VERSION = 1;
+
+    private static StationCatalog sInstance;
+
+    private final AtomicFile mFile;
+    // mount -> station, in the order JS gave them; null until loaded
+    private Map<String, Stream> mStations;
+
+    public static synchronized StationCatalog get(Context context) {
+        if (sInstance == null) {
+            sInstance = new StationCatalog(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private StationCatalog(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Replaces the catalog and persists it. Stations without a mount are skipped.
+     */
+    public synchronized void setStations(List<Stream> stations) {
+        Map<String, Stream> byMount = new LinkedHashMap<>();
+        for (Stream station : stations) {
+            if (station != null && station.getTritonMount() != null) {
+                byMount.put(station.getTritonMount(), station);
+            }
+        }
+        mStations = byMount;
+        save();
+    }
+
+    /**
+     * @return the station with this mount, null when it is not in the catalog
+     */
+    public synchronized Stream get(String mount) {
+        if (mount == null) return null;
+        return load().get(mount);
+    }
+
+    public synchronized List<Stream> getAll() {
+        return new ArrayList<>(load().values());
+    }
+
+    /**
+     * Reads the file now, if that did not happen yet, so a later lookup does not wait for the disk.
+     */
+    public synchronized void preload() {
+        load();
+    }
+
+    /**
+     * @return the catalog's version of the stream when it knows the mount, the stream itself otherwise
+     */
+    public Stream resolve(Stream stream) {
+        if (stream == null) return null;
+        Stream station = get(stream.getTritonMount());
+        return station != null ? station : stream;
+    }
+
+    private Map<String, Stream> load() {
+        if (mStations != null) return mStations;
+
+        Map<String, Stream> stations = new LinkedHashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown catalog format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Stream station = new Stream(readString(in), readString(in), readString(in), readString(in), in.readBoolean());
+                station.setState(in.readInt());
+                stations.put(station.getTritonMount(), station);
+            }
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the station catalog", e);
+            stations.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        mStations = stations;
+        return stations;
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(mStations.size());
+            for (Stream station : mStations.values()) {
+                writeString(data, station.getTitle());
+                writeString(data, station.getDescription());
+                writeString(data, station.getTritonName());
+                writeString(data, station.getTritonMount());
+                data.writeBoolean(station.isActive());
+                data.writeInt(station.getState());
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save the station catalog", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
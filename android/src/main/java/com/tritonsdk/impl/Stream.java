@@ -1,8 +1,14 @@
 package com.tritonsdk.impl;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import java.io.Serializable;
 
-public class Stream implements Serializable {
+public class Stream implements Serializable, Parcelable {
+
+    // the value the class had before it became Parcelable, so older serialized copies still read
+    private static final long serialVersionUID = 6622799839768704583L;
 
     private String title;
     private String description;
@@ -27,6 +33,15 @@ public class Stream implements Serializable {
         this.active = active;
     }
 
+    protected Stream(Parcel in) {
+        title = in.readString();
+        description = in.readString();
+        tritonName = in.readString();
+        tritonMount = in.readString();
+        state = in.readInt();
+        active = in.readInt() != 0;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -75,6 +90,33 @@ public class Stream implements Serializable {
         this.active = active;
     }
 
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(title);
+        dest.writeString(description);
+        dest.writeString(tritonName);
+        dest.writeString(tritonMount);
+        dest.writeInt(state);
+        dest.writeInt(active ? 1 : 0);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<Stream> CREATOR = new Creator<Stream>() {
+        @Override
+        public Stream createFromParcel(Parcel in) {
+            return new Stream(in);
+        }
+
+        @Override
+        public Stream[] newArray(int size) {
+            return new Stream[size];
+        }
+    };
+
     public interface OnStreamClickListener {
 
         void onStreamClicked(Stream stream);
@@ -0,0 +1,304 @@
+package com.tritonsdk.impl;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+
+/**
+ * Records a live stream from the moment it is paused, so it can resume where it was instead of
+ * reconnecting at the live edge. Recording goes on while the recording is played back, so playback
+ * stays behind live by the time spent paused. A pause longer than the time limit ends the recording,
+ * its owner then releases it and reconnects at the live edge.
+ * <p>
+ * The newest {@link #MEMORY_BYTES} are kept in memory, older audio spills to a ring file on disk.
+ * Audio older than the time limit, or beyond {@link #MAX_BYTES}, is dropped; playback that falls
+ * that far behind skips ahead to the oldest audio left.
+ * <p>
+ * Recording runs on its own thread, reads come from ExoPlayer's loader thread.
+ */
+class TimeShiftBuffer {
+
+    private static final String TAG = "TimeShiftBuffer";
+    static final int MEMORY_BYTES = 1024 * 1024;
+    static final long MAX_BYTES = 64 * 1024 * 1024;
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int TIMEOUT_MS = 10000;
+    private static final long MARK_INTERVAL_MS = 1000;
+
+    private final Uri mUri;
+    private final File mSpillFile;
+    private final long mMaxMs;
+    private final byte[] mMemory = new byte[MEMORY_BYTES];
+    // {elapsedRealtime, offset} about once a second, to drop audio by age
+    private final ArrayDeque<long[]> mMarks = new ArrayDeque<>();
+
+    // Absolute stream offsets, guarded by this
+    private long mWritten;
+    private long mOldest;
+    // when the first audio came in, the recording plays that far behind live
+    private long mStartedAt;
+    private RandomAccessFile mSpill;
+    private boolean mEnded;
+    private boolean mReleased;
+
+    private Thread mRecorder;
+
+    TimeShiftBuffer(String url, File spillFile, long maxMs) {
+        mUri = Uri.parse(url);
+        mSpillFile = spillFile;
+        mMaxMs = maxMs;
+    }
+
+    void start() {
+        mRecorder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                record();
+            }
+        }, "TritonTimeShift");
+        mRecorder.start();
+    }
+
+    /**
+     * Stops recording, wakes up a blocked reader and deletes the spill file.
+     */
+    void release() {
+        synchronized (this) {
+            if (mReleased) return;
+            mReleased = true;
+            notifyAll();
+            // otherwise the recorder closes it on its way out
+            if (mEnded) {
+                closeSpill();
+            }
+        }
+        if (mRecorder != null) {
+            mRecorder.interrupt();
+        }
+    }
+
+    String getUrl() {
+        return mUri.toString();
+    }
+
+    /**
+     * @return sources that play the recording from the oldest audio still buffered
+     */
+    DataSource.Factory getDataSourceFactory() {
+        final long base;
+        synchronized (this) {
+            base = mOldest;
+        }
+        return new DataSource.Factory() {
+            @Override
+            public DataSource createDataSource() {
+                return new Reader(base);
+            }
+        };
+    }
+
+    /**
+     * @param positionMs playback position in the recording, 0 while it is not played yet
+     * @return how far that position is behind the live stream, in ms
+     */
+    synchronized long getBehindLiveMs(long positionMs) {
+        if (mStartedAt == 0) return 0;
+        long behind = SystemClock.elapsedRealtime() - mStartedAt - positionMs;
+        // playback that fell behind the time limit skipped ahead to the oldest audio left
+        return Math.max(0, Math.min(behind, mMaxMs));
+    }
+
+    private void record() {
+        HttpDataSource source = new DefaultHttpDataSource.Factory()
+                .setConnectTimeoutMs(TIMEOUT_MS)
+                .setReadTimeoutMs(TIMEOUT_MS)
+                .setAllowCrossProtocolRedirects(true)
+                .createDataSource();
+        byte[] chunk = new byte[CHUNK_BYTES];
+        try {
+            source.open(new DataSpec(mUri));
+            while (!isReleased()) {
+                int read = source.read(chunk, 0, chunk.length);
+                if (read == C.RESULT_END_OF_INPUT) break;
+                append(chunk, read);
+            }
+        } catch (IOException e) {
+            if (!isReleased()) {
+                Log.w(TAG, "Recording " + mUri + " stopped", e);
+            }
+        } finally {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (this) {
+                mEnded = true;
+                notifyAll();
+                if (mReleased) {
+                    closeSpill();
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isReleased() {
+        return mReleased;
+    }
+
+    private synchronized void append(byte[] chunk, int length) throws IOException {
+        if (mReleased) return;
+        // the memory ring is about to overwrite the oldest bytes it holds, move them to disk first
+        long end = mWritten + length;
+        if (end > MEMORY_BYTES) {
+            spill(Math.max(mOldest, mWritten - MEMORY_BYTES), end - MEMORY_BYTES);
+        }
+        copy(chunk, 0, mMemory, mWritten, length, true);
+        mWritten = end;
+
+        long now = SystemClock.elapsedRealtime();
+        long[] last = mMarks.peekLast();
+        if (last == null || now - last[0] >= MARK_INTERVAL_MS) {
+            mMarks.addLast(new long[]{now, mWritten - length});
+        }
+        if (mStartedAt == 0) {
+            mStartedAt = now;
+        }
+        trim(now);
+        notifyAll();
+    }
+
+    private void trim(long now) {
+        long oldest = Math.max(mOldest, mWritten - MAX_BYTES);
+        while (!mMarks.isEmpty() && now - mMarks.peekFirst()[0] > mMaxMs) {
+            oldest = Math.max(oldest, mMarks.pollFirst()[1]);
+        }
+        mOldest = Math.min(oldest, mWritten);
+    }
+
+    private void spill(long from, long to) throws IOException {
+        if (from >= to) return;
+        if (mSpill == null) {
+            mSpill = new RandomAccessFile(mSpillFile, "rw");
+        }
+        long capacity = MAX_BYTES - MEMORY_BYTES;
+        while (from < to) {
+            int memoryPos = (int) (from % MEMORY_BYTES);
+            long diskPos = from % capacity;
+            int n = (int) Math.min(Math.min(to - from, MEMORY_BYTES - memoryPos), capacity - diskPos);
+            mSpill.seek(diskPos);
+            mSpill.write(mMemory, memoryPos, n);
+            from += n;
+        }
+    }
+
+    /**
+     * Copies between a linear array and the memory ring, at the ring position of the absolute offset.
+     */
+    private static void copy(byte[] linear, int linearPos, byte[] ring, long offset, int length, boolean intoRing) {
+        while (length > 0) {
+            int ringPos = (int) (offset % ring.length);
+            int n = Math.min(length, ring.length - ringPos);
+            if (intoRing) {
+                System.arraycopy(linear, linearPos, ring, ringPos, n);
+            } else {
+                System.arraycopy(ring, ringPos, linear, linearPos, n);
+            }
+            linearPos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void closeSpill() {
+        if (mSpill != null) {
+            try {
+                mSpill.close();
+            } catch (IOException ignored) {
+            }
+            mSpill = null;
+        }
+        if (!mSpillFile.delete() && mSpillFile.exists()) {
+            Log.w(TAG, "Could not delete " + mSpillFile);
+        }
+    }
+
+    /**
+     * Blocks until audio at the offset is recorded.
+     *
+     * @return the bytes read, or {@link C#RESULT_END_OF_INPUT} once recording ended and everything was read
+     */
+    private synchronized int read(Reader reader, byte[] buffer, int offset, int length) throws IOException {
+        while (reader.position >= mWritten && !mEnded && !mReleased) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        if (mReleased) throw new IOException("Time-shift buffer released");
+        if (reader.position >= mWritten) return C.RESULT_END_OF_INPUT;
+        // fell behind the time limit, the extractor resyncs on the next frame
+        reader.position = Math.max(reader.position, mOldest);
+
+        int n = (int) Math.min(length, mWritten - reader.position);
+        long inMemoryFrom = Math.max(0, mWritten - MEMORY_BYTES);
+        if (reader.position >= inMemoryFrom) {
+            copy(buffer, offset, mMemory, reader.position, n, false);
+        } else {
+            long capacity = MAX_BYTES - MEMORY_BYTES;
+            long diskPos = reader.position % capacity;
+            n = (int) Math.min(Math.min(n, inMemoryFrom - reader.position), capacity - diskPos);
+            mSpill.seek(diskPos);
+            mSpill.readFully(buffer, offset, n);
+        }
+        reader.position += n;
+        return n;
+    }
+
+    private class Reader implements DataSource {
+
+        private final long mBase;
+        long position;
+
+        Reader(long base) {
+            mBase = base;
+        }
+
+        @Override
+        public void addTransferListener(TransferListener transferListener) {
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) {
+            position = mBase + dataSpec.position;
+            return C.LENGTH_UNSET;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            return TimeShiftBuffer.this.read(this, buffer, offset, length);
+        }
+
+        @Override
+        public Uri getUri() {
+            return mUri;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
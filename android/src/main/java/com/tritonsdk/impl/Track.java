@@ -1,12 +1,23 @@
 package com.tritonsdk.impl;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import java.io.Serializable;
+import java.util.Objects;
+
+public class Track implements Serializable, Parcelable {
+    // kept from before coverUrl, album and startedAt were added, old copies read with them unset
+    private static final long serialVersionUID = -4269052895920915456L;
 
-public class Track implements Serializable {
     private String title;
     private String artist;
     private int duration;
     private boolean ads;
+    private String coverUrl;
+    private String album;
+    // When the cue says the track started, in ms since the epoch, 0 when unknown
+    private long startedAt;
 
     public Track() {
 
@@ -22,6 +33,16 @@ public class Track implements Serializable {
         this.ads = true;
     }
 
+    protected Track(Parcel in) {
+        title = in.readString();
+        artist = in.readString();
+        duration = in.readInt();
+        ads = in.readInt() != 0;
+        coverUrl = in.readString();
+        album = in.readString();
+        startedAt = in.readLong();
+    }
+
     public String getTitle() {
         return title;
     }
@@ -53,4 +74,75 @@ public class Track implements Serializable {
     public void setDuration(int duration) {
         this.duration = duration;
     }
+
+    public String getCoverUrl() {
+        return coverUrl;
+    }
+
+    public void setCoverUrl(String coverUrl) {
+        this.coverUrl = coverUrl;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public void setAlbum(String album) {
+        this.album = album;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Track)) return false;
+        Track track = (Track) o;
+        return duration == track.duration
+                && ads == track.ads
+                && Objects.equals(title, track.title)
+                && Objects.equals(artist, track.artist)
+                && startedAt == track.startedAt
+                && Objects.equals(coverUrl, track.coverUrl)
+                && Objects.equals(album, track.album);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, artist, duration, ads, coverUrl, album, startedAt);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(title);
+        dest.writeString(artist);
+        dest.writeInt(duration);
+        dest.writeInt(ads ? 1 : 0);
+        dest.writeString(coverUrl);
+        dest.writeString(album);
+        dest.writeLong(startedAt);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<Track> CREATOR = new Creator<Track>() {
+        @Override
+        public Track createFromParcel(Parcel in) {
+            return new Track(in);
+        }
+
+        @Override
+        public Track[] newArray(int size) {
+            return new Track[size];
+        }
+    };
 }
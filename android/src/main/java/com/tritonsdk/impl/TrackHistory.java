@@ -0,0 +1,146 @@
+package com.tritonsdk.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recently played tracks per stream mount. Each mount gets a fixed-size ring of parallel arrays and
+ * only the most recently used mounts are kept, so memory stays constant however long a session runs.
+ */
+public class TrackHistory {
+
+    public static final int DEFAULT_CAPACITY = 20;
+    public static final int DEFAULT_MAX_STREAMS = 16;
+
+    private final int mCapacity;
+    private final int mMaxStreams;
+
+    // mount -> ring, least recently used first
+    private final LinkedHashMap<String, Ring> mRings = new LinkedHashMap<>(16, 0.75f, true);
+
+    public TrackHistory() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_STREAMS);
+    }
+
+    public TrackHistory(int capacity, int maxStreams) {
+        mCapacity = capacity;
+        mMaxStreams = maxStreams;
+    }
+
+    public synchronized void record(String mount, String title, String artist, int duration, long playedAt) {
+        if (mount == null) return;
+
+        Ring ring = mRings.get(mount);
+        if (ring == null) {
+            if (mRings.size() >= mMaxStreams) {
+                // recycle the least recently used mount's ring instead of allocating a new one
+                Iterator<Map.Entry<String, Ring>> eldest = mRings.entrySet().iterator();
+                ring = eldest.next().getValue();
+                eldest.remove();
+                ring.clear();
+            } else {
+                ring = new Ring(mCapacity);
+            }
+            mRings.put(mount, ring);
+        }
+        ring.add(title, artist, duration, playedAt);
+    }
+
+    /**
+     * @return the tracks played on this mount, newest first
+     */
+    public synchronized List<Entry> get(String mount) {
+        Ring ring = mount != null ? mRings.get(mount) : null;
+        if (ring == null) return new ArrayList<>();
+        return ring.toList();
+    }
+
+    public synchronized void clear() {
+        mRings.clear();
+    }
+
+    public static class Entry {
+        private final String title;
+        private final String artist;
+        private final int duration;
+        private final long playedAt;
+
+        Entry(String title, String artist, int duration, long playedAt) {
+            this.title = title;
+            this.artist = artist;
+            this.duration = duration;
+            this.playedAt = playedAt;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getArtist() {
+            return artist;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+
+        public long getPlayedAt() {
+            return playedAt;
+        }
+    }
+
+    private static class Ring {
+        final String[] titles;
+        final String[] artists;
+        final int[] durations;
+        final long[] playedAt;
+        int head;
+        int size;
+
+        Ring(int capacity) {
+            titles = new String[capacity];
+            artists = new String[capacity];
+            durations = new int[capacity];
+            playedAt = new long[capacity];
+        }
+
+        void add(String title, String artist, int duration, long time) {
+            if (size > 0) {
+                int last = (head - 1 + titles.length) % titles.length;
+                // a repeated cue for the track that is already on top
+                if (equals(titles[last], title) && equals(artists[last], artist)) return;
+            }
+            titles[head] = title;
+            artists[head] = artist;
+            durations[head] = duration;
+            playedAt[head] = time;
+            head = (head + 1) % titles.length;
+            if (size < titles.length) size++;
+        }
+
+        void clear() {
+            for (int i = 0; i < titles.length; i++) {
+                titles[i] = null;
+                artists[i] = null;
+            }
+            head = 0;
+            size = 0;
+        }
+
+        List<Entry> toList() {
+            List<Entry> list = new ArrayList<>(size);
+            for (int i = 1; i <= size; i++) {
+                int index = (head - i + titles.length) % titles.length;
+                list.add(new Entry(titles[index], artists[index], durations[index], playedAt[index]));
+            }
+            return list;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.tritondigital.player.MediaPlayer;
+import com.tritondigital.player.TritonPlayer;
+
+/**
+ * {@link PlayerEngine} on top of the Triton SDK's TritonPlayer.
+ */
+class TritonEngine implements PlayerEngine, TritonPlayer.OnStateChangedListener, TritonPlayer.OnCuePointReceivedListener,
+        TritonPlayer.OnMetaDataReceivedListener, TritonPlayer.OnInfoListener {
+
+    static final PlayerEngine.Factory FACTORY = new PlayerEngine.Factory() {
+        @Override
+        public PlayerEngine create(Context context, Bundle settings) {
+            return new TritonEngine(new TritonPlayer(context, settings));
+        }
+    };
+
+    private final TritonPlayer mPlayer;
+    private volatile Listener mListener;
+
+    TritonEngine(TritonPlayer player) {
+        mPlayer = player;
+        mPlayer.setOnStateChangedListener(this);
+        mPlayer.setOnCuePointReceivedListener(this);
+        mPlayer.setOnMetaDataReceivedListener(this);
+        mPlayer.setOnInfoListener(this);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void play() {
+        mPlayer.play();
+    }
+
+    @Override
+    public void pause() {
+        mPlayer.pause();
+    }
+
+    @Override
+    public void stop() {
+        mPlayer.stop();
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        mPlayer.release();
+    }
+
+    @Override
+    public int getState() {
+        return mPlayer.getState();
+    }
+
+    @Override
+    public Bundle getSettings() {
+        return mPlayer.getSettings();
+    }
+
+    @Override
+    public String getStreamUrl() {
+        try {
+            return mPlayer.getCastStreamingUrl();
+        } catch (RuntimeException e) {
+            // the SDK indexes its server list without checking it, e.g. while it fails over
+            return null;
+        }
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mPlayer.setVolume(volume);
+    }
+
+    @Override
+    public void onStateChanged(MediaPlayer mediaPlayer, int state) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStateChanged(this, state);
+        }
+    }
+
+    @Override
+    public void onCuePointReceived(MediaPlayer mediaPlayer, Bundle cuePoint) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onCuePointReceived(this, cuePoint);
+        }
+    }
+
+    @Override
+    public void onMetaDataReceived(MediaPlayer mediaPlayer, Bundle metaData) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onMetaDataReceived(this, metaData);
+        }
+    }
+
+    @Override
+    public void onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onInfo(this, what);
+        }
+    }
+}
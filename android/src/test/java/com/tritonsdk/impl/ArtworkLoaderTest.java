@@ -0,0 +1,180 @@
+package com.tritonsdk.impl;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs ArtworkLoader against a local HTTP server. Robolectric's BitmapFactory does not decode, every
+ * file comes back as a 100x100 bitmap, so downsampling and rejecting non-images are not covered here.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ArtworkLoaderTest {
+
+    private static final int TARGET_SIZE = 100;
+    private static final long TIMEOUT_MS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<String> mLoaded = Collections.synchronizedList(new ArrayList<String>());
+    private final ArtworkLoader.Callback mCallback = new ArtworkLoader.Callback() {
+        @Override
+        public void onArtworkLoaded(String url, Bitmap bitmap) {
+            assertNotNull(bitmap);
+            mLoaded.add(url);
+        }
+    };
+
+    private MockWebServer mServer;
+    private File mCacheDir;
+    private ArtworkLoader mLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        mCacheDir = new File(mFolder.getRoot(), "artwork");
+        mLoader = newLoader();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLoader.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void loadsAndKeepsInMemory() throws Exception {
+        mServer.enqueue(image(400));
+        String url = mServer.url("/cover.png").toString();
+
+        mLoader.load(url, mCallback);
+        awaitLoaded(1);
+        assertNotNull(mLoader.getCached(url));
+
+        mLoader.load(url, mCallback);
+        awaitLoaded(2);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void sharesOneDownload() throws Exception {
+        mServer.enqueue(image(200).setBodyDelay(200, TimeUnit.MILLISECONDS));
+        String url = mServer.url("/shared.png").toString();
+
+        mLoader.load(url, mCallback);
+        mLoader.load(url, mCallback);
+        mLoader.load(url, mCallback);
+        awaitLoaded(3);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void readsTheDiskCacheAfterARestart() throws Exception {
+        mServer.enqueue(image(200));
+        String url = mServer.url("/disk.png").toString();
+        mLoader.load(url, mCallback);
+        awaitLoaded(1);
+
+        mLoader.shutdown();
+        mLoader = newLoader();
+        assertNull(mLoader.getCached(url));
+        mLoader.load(url, mCallback);
+        awaitLoaded(2);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryAFailedUrl() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+        mServer.enqueue(image(200));
+        String url = mServer.url("/missing.png").toString();
+
+        mLoader.load(url, mCallback);
+        mServer.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        awaitIdle();
+        mLoader.load(url, mCallback);
+        awaitIdle();
+
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(mLoaded.isEmpty());
+        assertEquals(0, mCacheDir.list() == null ? 0 : mCacheDir.list().length);
+    }
+
+    @Test
+    public void dropsRequestsAfterShutdown() throws Exception {
+        mLoader.shutdown();
+        mLoader.load(mServer.url("/late.png").toString(), mCallback);
+        awaitIdle();
+
+        assertEquals(0, mServer.getRequestCount());
+        assertTrue(mLoaded.isEmpty());
+    }
+
+    private ArtworkLoader newLoader() {
+        return new ArtworkLoader(mCacheDir, TARGET_SIZE, new Handler(Looper.getMainLooper()));
+    }
+
+    private static MockResponse image(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        return new MockResponse()
+                .setHeader("Content-Type", "image/png")
+                .setBody(new Buffer().write(bytes.toByteArray()));
+    }
+
+    /**
+     * Runs the main looper, where the callbacks arrive, until the expected number came in.
+     */
+    private void awaitLoaded(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mLoaded.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(count, mLoaded.size());
+    }
+
+    /**
+     * Gives the loader's threads time to finish what they started, then runs the callbacks.
+     */
+    private void awaitIdle() throws InterruptedException {
+        Thread.sleep(200);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,146 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tritondigital.player.MediaPlayer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class AudioFocusPolicyTest {
+
+    private final List<String> mCalls = new ArrayList<>();
+    private boolean mLive = true;
+    private float mVolume = MediaPlayer.VOLUME_NORMAL;
+    private AudioFocusPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        AudioManager audioManager = (AudioManager) RuntimeEnvironment.getApplication().getSystemService(Context.AUDIO_SERVICE);
+        mPolicy = new AudioFocusPolicy(audioManager, new Handler(Looper.getMainLooper()), new AudioFocusPolicy.Target() {
+            @Override
+            public boolean isLive() {
+                return mLive;
+            }
+
+            @Override
+            public void setVolume(float volume) {
+                mVolume = volume;
+            }
+
+            @Override
+            public void pause() {
+                mCalls.add("pause");
+            }
+
+            @Override
+            public void resume() {
+                mCalls.add("resume");
+            }
+
+            @Override
+            public void onFocusLoss() {
+                mCalls.add("loss");
+            }
+
+            @Override
+            public void onReconnectAvoided() {
+                mCalls.add("reconnectAvoided");
+            }
+        });
+        assertTrue(mPolicy.request());
+    }
+
+    @Test
+    public void ducksAndRestores() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK);
+        assertEquals(MediaPlayer.VOLUME_DUCK, mVolume, 0);
+        assertEquals(MediaPlayer.VOLUME_DUCK, mPolicy.getVolume(), 0);
+
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_GAIN);
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+        assertTrue(mCalls.isEmpty());
+    }
+
+    @Test
+    public void mutesALiveStreamInsteadOfPausing() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT);
+        assertEquals(MediaPlayer.VOLUME_MUTE, mVolume, 0);
+
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_GAIN);
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+        assertEquals(Arrays.asList("loss", "reconnectAvoided"), mCalls);
+    }
+
+    @Test
+    public void pausesOnDemandItems() {
+        mLive = false;
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT);
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_GAIN);
+
+        assertEquals(Arrays.asList("loss", "pause", "resume"), mCalls);
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+    }
+
+    @Test
+    public void pausesWhenMutedTooLong() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT);
+        ShadowSystemClock.advanceBy(Duration.ofMillis(AudioFocusPolicy.MAX_MUTED_MS));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Arrays.asList("loss", "pause"), mCalls);
+
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_GAIN);
+        assertEquals(Arrays.asList("loss", "pause", "resume"), mCalls);
+    }
+
+    @Test
+    public void playDuringADuckRestoresTheVolume() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK);
+        assertTrue(mPolicy.request());
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+    }
+
+    @Test
+    public void stopWhileMutedRestoresTheVolume() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT);
+        mPolicy.reset();
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+
+        // the mute timer went with the hold
+        ShadowSystemClock.advanceBy(Duration.ofMillis(AudioFocusPolicy.MAX_MUTED_MS));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Arrays.asList("loss"), mCalls);
+    }
+
+    @Test
+    public void permanentLossPausesAndRestores() {
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK);
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_LOSS);
+        assertEquals(Arrays.asList("loss", "pause"), mCalls);
+        assertEquals(MediaPlayer.VOLUME_NORMAL, mVolume, 0);
+
+        mPolicy.onAudioFocusChange(AudioManager.AUDIOFOCUS_GAIN);
+        assertEquals(Arrays.asList("loss", "pause"), mCalls);
+    }
+}
@@ -0,0 +1,56 @@
+package com.tritonsdk.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a benchmark's results as JSON to {@code build/reports/benchmarks/<suite>/<name>.json}, one
+ * file per result, replaced on every run. The directory can be moved with the
+ * {@code benchmark.reportDir} system property.
+ */
+final class BenchmarkReport {
+
+    private final String mSuite;
+    private final String mName;
+    private final Map<String, Number> mValues = new LinkedHashMap<>();
+
+    BenchmarkReport(Class<?> suite, String name) {
+        mSuite = suite.getSimpleName();
+        mName = name;
+    }
+
+    BenchmarkReport put(String key, Number value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    void write() {
+        File dir = new File(System.getProperty("benchmark.reportDir", "build/reports/benchmarks"), mSuite);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("cannot create " + dir);
+        }
+        StringBuilder json = new StringBuilder("{\"suite\": ").append(quote(mSuite))
+                .append(", \"name\": ").append(quote(mName));
+        for (Map.Entry<String, Number> value : mValues.entrySet()) {
+            json.append(", ").append(quote(value.getKey())).append(": ").append(value.getValue());
+        }
+        json.append("}\n");
+
+        File file = new File(dir, mName.replaceAll("[^A-Za-z0-9_.-]", "_") + ".json");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(json.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot write " + file, e);
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
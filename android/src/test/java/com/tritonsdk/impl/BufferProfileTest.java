@@ -0,0 +1,18 @@
+package com.tritonsdk.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * How the profiles play is measured on a device by BufferProfileBenchmark.
+ */
+public class BufferProfileTest {
+
+    @Test
+    public void unknownNamesAreBalanced() {
+        assertEquals(BufferProfile.BALANCED, BufferProfile.forName(null).getName());
+        assertEquals(BufferProfile.BALANCED, BufferProfile.forName("fastest").getName());
+        assertEquals(BufferProfile.LOW_LATENCY, BufferProfile.forName(BufferProfile.LOW_LATENCY).getName());
+    }
+}
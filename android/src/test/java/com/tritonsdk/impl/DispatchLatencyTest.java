@@ -0,0 +1,156 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Benchmarks a cue point's way from the engine callback to a bound listener, the path every track
+ * change takes. Fails when the median or the 99th percentile exceed their budgets, which are loose
+ * enough for a slow CI machine but not for a broadcast, a disk write or a lock convoy per event.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DispatchLatencyTest {
+
+    private static final int WARMUP_EVENTS = 2000;
+    private static final int EVENTS = 10000;
+    private static final long MAX_MEDIAN_NS = 200 * 1000;
+    private static final long MAX_P99_NS = 2 * 1000 * 1000;
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private PlayerEngine.Listener mEngineListener;
+    private PlayerEngine mEngine;
+
+    private long mSentAt;
+    private long[] mLatencies;
+    private int mReceived;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                // only records its listener, the test calls it like TritonPlayer would
+                mEngine = new FakePlayerEngine(new FakePlayerEngine.Script(), settings) {
+                    @Override
+                    public void setListener(Listener listener) {
+                        super.setListener(listener);
+                        mEngineListener = listener;
+                    }
+                };
+                return mEngine;
+            }
+        };
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mService.addListener(new PlayerService.OnPlayerEventListener() {
+            @Override
+            public void onStreamChanged(Stream stream) {
+            }
+
+            @Override
+            public void onTrackChanged(Track track) {
+                if (mLatencies != null && track != null) {
+                    mLatencies[mReceived++] = System.nanoTime() - mSentAt;
+                }
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+            }
+
+            @Override
+            public void onQueueIndexChanged(int index) {
+            }
+        });
+        mService.play(new Stream("Station", "", "STATION", "STATION_MP3"));
+        shadowOf(mService.getPlaybackLooper()).idle();
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+    }
+
+    @Test
+    public void cuePointToListener() {
+        dispatch(WARMUP_EVENTS, "Warmup ");
+        dispatch(EVENTS, "Track ");
+
+        assertEquals(EVENTS, mReceived);
+        long[] sorted = mLatencies.clone();
+        Arrays.sort(sorted);
+        long median = sorted[EVENTS / 2];
+        long p99 = sorted[EVENTS * 99 / 100];
+        new BenchmarkReport(DispatchLatencyTest.class, "cue point to listener")
+                .put("medianNs", median)
+                .put("p99Ns", p99)
+                .put("events", EVENTS)
+                .write();
+        assertTrue("median " + median + "ns exceeds " + MAX_MEDIAN_NS + "ns", median <= MAX_MEDIAN_NS);
+        assertTrue("p99 " + p99 + "ns exceeds " + MAX_P99_NS + "ns", p99 <= MAX_P99_NS);
+    }
+
+    @Test
+    public void noBroadcastsUnlessAskedFor() {
+        boolean broadcast = PlayerService.BROADCAST_EVENTS;
+        PlayerService.BROADCAST_EVENTS = false;
+        try {
+            shadowOf(RuntimeEnvironment.getApplication()).clearBroadcastIntents();
+            dispatch(100, "Track ");
+            assertEquals(0, shadowOf(RuntimeEnvironment.getApplication()).getBroadcastIntents().size());
+        } finally {
+            PlayerService.BROADCAST_EVENTS = broadcast;
+        }
+    }
+
+    /**
+     * Sends distinct track cue points from the playback thread, as TritonPlayer's callbacks arrive there.
+     */
+    private void dispatch(final int events, final String titlePrefix) {
+        mLatencies = new long[events];
+        mReceived = 0;
+        new Handler(mService.getPlaybackLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < events; i++) {
+                    Bundle cuePoint = new Bundle();
+                    cuePoint.putString("cue_type", PlayerService.CUE_TYPE_TRACK);
+                    cuePoint.putString("cue_title", titlePrefix + i);
+                    cuePoint.putString("track_artist_name", "Artist");
+                    mSentAt = System.nanoTime();
+                    mEngineListener.onCuePointReceived(mEngine, cuePoint);
+                }
+            }
+        });
+        shadowOf(mService.getPlaybackLooper()).idle();
+    }
+}
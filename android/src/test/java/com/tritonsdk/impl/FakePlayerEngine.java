@@ -0,0 +1,235 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tritondigital.player.TritonPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link PlayerEngine} that plays back a {@link Script} instead of a stream: state changes, cue
+ * points and buffering hints at fixed delays, the same sequence on every play(). There is no
+ * network or audio involved, so scripts can run at rates no real station would, e.g. in
+ * {@link SoakTest}.
+ * <p>
+ * Callbacks come on the looper of the thread that created the engine.
+ */
+public class FakePlayerEngine implements PlayerEngine {
+
+    /**
+     * Steps played in order, each one after its delay. Steps added after {@link #repeat()} loop until
+     * the engine is paused, stopped or released. A script is immutable once handed to a {@link Factory}.
+     */
+    public static class Script {
+
+        private final List<Step> mSteps = new ArrayList<>();
+        private int mRepeatFrom = -1;
+
+        /**
+         * A station that connects after connectMs and then sends a new track every cueIntervalMs, cycling through
+         * the given number of tracks.
+         */
+        public static Script station(long connectMs, long cueIntervalMs, int tracks) {
+            Script script = new Script()
+                    .state(0, TritonPlayer.STATE_CONNECTING)
+                    .state(connectMs, TritonPlayer.STATE_PLAYING)
+                    .repeat();
+            for (int i = 1; i <= tracks; i++) {
+                script.track(cueIntervalMs, "Track " + i, "Artist " + i, (int) cueIntervalMs);
+            }
+            return script;
+        }
+
+        public Script state(long delayMs, int state) {
+            return add(new Step(delayMs, Step.STATE, state, null));
+        }
+
+        public Script cuePoint(long delayMs, Bundle cuePoint) {
+            return add(new Step(delayMs, Step.CUE_POINT, 0, new Bundle(cuePoint)));
+        }
+
+        public Script track(long delayMs, String title, String artist, int durationMs) {
+            Bundle cuePoint = new Bundle();
+            cuePoint.putString("cue_type", PlayerService.CUE_TYPE_TRACK);
+            cuePoint.putString("cue_title", title);
+            cuePoint.putString("track_artist_name", artist);
+            cuePoint.putInt("cue_time_duration", durationMs);
+            return add(new Step(delayMs, Step.CUE_POINT, 0, cuePoint));
+        }
+
+        public Script ad(long delayMs) {
+            Bundle cuePoint = new Bundle();
+            cuePoint.putString("cue_type", PlayerService.CUE_TYPE_AD);
+            return add(new Step(delayMs, Step.CUE_POINT, 0, cuePoint));
+        }
+
+        public Script metaData(long delayMs, Bundle metaData) {
+            return add(new Step(delayMs, Step.META_DATA, 0, new Bundle(metaData)));
+        }
+
+        public Script info(long delayMs, int what) {
+            return add(new Step(delayMs, Step.INFO, what, null));
+        }
+
+        public Script repeat() {
+            mRepeatFrom = mSteps.size();
+            return this;
+        }
+
+        private Script add(Step step) {
+            mSteps.add(step);
+            return this;
+        }
+    }
+
+    /**
+     * Builds engines that all play the same script.
+     */
+    public static class Factory implements PlayerEngine.Factory {
+
+        private final Script mScript;
+
+        public Factory(Script script) {
+            mScript = script;
+        }
+
+        @Override
+        public PlayerEngine create(Context context, Bundle settings) {
+            return new FakePlayerEngine(mScript, settings);
+        }
+    }
+
+    private static class Step {
+        static final int STATE = 0;
+        static final int CUE_POINT = 1;
+        static final int META_DATA = 2;
+        static final int INFO = 3;
+
+        final long delayMs;
+        final int type;
+        final int value;
+        final Bundle bundle;
+
+        Step(long delayMs, int type, int value, Bundle bundle) {
+            this.delayMs = delayMs;
+            this.type = type;
+            this.value = value;
+            this.bundle = bundle;
+        }
+    }
+
+    private final Script mScript;
+    private final Bundle mSettings;
+    private final Handler mHandler;
+
+    private volatile Listener mListener;
+    private volatile int mState = TritonPlayer.STATE_STOPPED;
+    private int mNext;
+
+    public FakePlayerEngine(Script script, Bundle settings) {
+        mScript = script;
+        mSettings = settings;
+        Looper looper = Looper.myLooper();
+        mHandler = new Handler(looper != null ? looper : Looper.getMainLooper());
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void play() {
+        int state = mState;
+        if (state == TritonPlayer.STATE_RELEASED || state == TritonPlayer.STATE_CONNECTING || state == TritonPlayer.STATE_PLAYING) return;
+        mNext = 0;
+        scheduleNext();
+    }
+
+    @Override
+    public void pause() {
+        if (mState != TritonPlayer.STATE_PLAYING && mState != TritonPlayer.STATE_CONNECTING) return;
+        mHandler.removeCallbacks(mStepRunnable);
+        setState(TritonPlayer.STATE_PAUSED);
+    }
+
+    @Override
+    public void stop() {
+        if (mState == TritonPlayer.STATE_RELEASED || mState == TritonPlayer.STATE_STOPPED) return;
+        mHandler.removeCallbacks(mStepRunnable);
+        setState(TritonPlayer.STATE_STOPPED);
+    }
+
+    @Override
+    public void release() {
+        mHandler.removeCallbacks(mStepRunnable);
+        mListener = null;
+        mState = TritonPlayer.STATE_RELEASED;
+    }
+
+    @Override
+    public int getState() {
+        return mState;
+    }
+
+    @Override
+    public Bundle getSettings() {
+        return mSettings;
+    }
+
+    @Override
+    public String getStreamUrl() {
+        return mSettings.getString(TritonPlayer.SETTINGS_STREAM_URL);
+    }
+
+    @Override
+    public void setVolume(float volume) {
+    }
+
+    private void scheduleNext() {
+        List<Step> steps = mScript.mSteps;
+        if (mNext >= steps.size()) {
+            if (mScript.mRepeatFrom < 0 || mScript.mRepeatFrom >= steps.size()) return;
+            mNext = mScript.mRepeatFrom;
+        }
+        mHandler.postDelayed(mStepRunnable, steps.get(mNext).delayMs);
+    }
+
+    private void setState(int state) {
+        if (mState == state || mState == TritonPlayer.STATE_RELEASED) return;
+        mState = state;
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStateChanged(this, state);
+        }
+    }
+
+    private final Runnable mStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Step step = mScript.mSteps.get(mNext++);
+            Listener listener = mListener;
+            switch (step.type) {
+                case Step.STATE:
+                    setState(step.value);
+                    // a scripted end of stream ends the script too
+                    if (step.value != TritonPlayer.STATE_CONNECTING && step.value != TritonPlayer.STATE_PLAYING) return;
+                    break;
+                case Step.CUE_POINT:
+                    if (listener != null) listener.onCuePointReceived(FakePlayerEngine.this, new Bundle(step.bundle));
+                    break;
+                case Step.META_DATA:
+                    if (listener != null) listener.onMetaDataReceived(FakePlayerEngine.this, new Bundle(step.bundle));
+                    break;
+                case Step.INFO:
+                    if (listener != null) listener.onInfo(FakePlayerEngine.this, step.value);
+                    break;
+            }
+            scheduleNext();
+        }
+    };
+}
@@ -0,0 +1,130 @@
+package com.tritonsdk.impl;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.tritondigital.player.CuePoint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks the code that runs for every player event, next to {@link DispatchLatencyTest} which
+ * covers a cue point's whole way to the listeners. Each path fails when its median or 99th
+ * percentile exceeds a budget; the budgets leave room for a slow CI machine and Robolectric's Java
+ * Parcel, not for an accidental allocation storm or a lock on the way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class HotPathBenchmarkTest {
+
+    private static final int WARMUP_OPS = 5000;
+    private static final int OPS = 20000;
+
+    @Test
+    public void newCuePoint() {
+        final MetadataPipeline pipeline = new MetadataPipeline();
+        final Bundle[] cuePoints = new Bundle[64];
+        for (int i = 0; i < cuePoints.length; i++) {
+            cuePoints[i] = trackCue("Title " + i, "Artist " + i);
+        }
+        benchmark("new cue point", 50 * 1000, 1000 * 1000, new Op() {
+            @Override
+            public void run(int i) {
+                assertNotNull(pipeline.onCuePoint(cuePoints[i % cuePoints.length]));
+            }
+        });
+    }
+
+    @Test
+    public void repeatedCuePoint() {
+        final MetadataPipeline pipeline = new MetadataPipeline();
+        final Bundle cuePoint = trackCue("Title", "Artist");
+        pipeline.onCuePoint(cuePoint);
+        // stations resend the current cue, it is dropped without building a Track
+        benchmark("repeated cue point", 10 * 1000, 500 * 1000, new Op() {
+            @Override
+            public void run(int i) {
+                assertNull(pipeline.onCuePoint(cuePoint));
+            }
+        });
+    }
+
+    @Test
+    public void streamMetadata() {
+        final MetadataPipeline pipeline = new MetadataPipeline();
+        final Bundle[] metaData = new Bundle[64];
+        for (int i = 0; i < metaData.length; i++) {
+            metaData[i] = new Bundle();
+            metaData[i].putString("StreamTitle", "Artist " + i + " - Title " + i);
+        }
+        benchmark("stream metadata", 50 * 1000, 1000 * 1000, new Op() {
+            @Override
+            public void run(int i) {
+                assertNotNull(pipeline.onMetaData(metaData[i % metaData.length]));
+            }
+        });
+    }
+
+    @Test
+    public void encodeTrackExtras() {
+        final Track track = new Track("Title", "Artist", 180000);
+        track.setAlbum("Album");
+        track.setCoverUrl("https://example.com/cover.jpg");
+        // what sendBroadcast() does to the intent PlayerService builds for a track change
+        benchmark("encode track extras", 200 * 1000, 2000 * 1000, new Op() {
+            @Override
+            public void run(int i) {
+                Intent intent = new Intent(PlayerService.EVENT_TRACK_CHANGED);
+                intent.putExtra(PlayerService.ARG_TRACK, (Parcelable) track);
+                Parcel parcel = Parcel.obtain();
+                intent.writeToParcel(parcel, 0);
+                parcel.recycle();
+            }
+        });
+    }
+
+    private static Bundle trackCue(String title, String artist) {
+        Bundle cuePoint = new Bundle();
+        cuePoint.putString(CuePoint.CUE_TYPE, CuePoint.CUE_TYPE_VALUE_TRACK);
+        cuePoint.putString(CuePoint.CUE_TITLE, title);
+        cuePoint.putString(CuePoint.TRACK_ARTIST_NAME, artist);
+        return cuePoint;
+    }
+
+    private static void benchmark(String name, long maxMedianNs, long maxP99Ns, Op op) {
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            op.run(i);
+        }
+        long[] elapsed = new long[OPS];
+        for (int i = 0; i < OPS; i++) {
+            long start = System.nanoTime();
+            op.run(i);
+            elapsed[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(elapsed);
+        long median = elapsed[OPS / 2];
+        long p99 = elapsed[OPS * 99 / 100];
+        new BenchmarkReport(HotPathBenchmarkTest.class, name)
+                .put("medianNs", median)
+                .put("p99Ns", p99)
+                .put("ops", OPS)
+                .write();
+        assertTrue(name + " median " + median + "ns exceeds " + maxMedianNs + "ns", median <= maxMedianNs);
+        assertTrue(name + " p99 " + p99 + "ns exceeds " + maxP99Ns + "ns", p99 <= maxP99Ns);
+    }
+
+    private interface Op {
+        void run(int i);
+    }
+}
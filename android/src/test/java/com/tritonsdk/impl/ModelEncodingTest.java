@@ -0,0 +1,165 @@
+package com.tritonsdk.impl;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The models travel in intent extras, as Parcelables from this version on and as Serializables from
+ * older callers. Checks both forms round-trip, that copies serialized by the baseline classes still
+ * read, and benchmarks both encodings.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class ModelEncodingTest {
+
+    // serialized by the classes before they became Parcelable
+    private static final String BASELINE_STREAM = "rO0ABXNyABljb20udHJpdG9uc2RrLmltcGwuU3RyZWFtW+jpXXvtdkcCAAZaAAZhY3RpdmVJAAVzdGF0ZUwAC2Rlc2NyaXB0aW9udAASTGphdmEvbGFuZy9TdHJpbmc7TAAFdGl0bGVxAH4AAUwAC3RyaXRvbk1vdW50cQB+AAFMAAp0cml0b25OYW1lcQB+AAF4cAEAAAAAdAAITm9uLXN0b3B0AAVTTEFNIXQACFNMQU1fTVAzdAAEU0xBTQ==";
+    private static final String BASELINE_TRACK = "rO0ABXNyABhjb20udHJpdG9uc2RrLmltcGwuVHJhY2vEwUcCc0f8AAIABFoAA2Fkc0kACGR1cmF0aW9uTAAGYXJ0aXN0dAASTGphdmEvbGFuZy9TdHJpbmc7TAAFdGl0bGVxAH4AAXhwAAACvyB0AAZBcnRpc3R0AAVUaXRsZQ==";
+    private static final String BASELINE_ON_DEMAND = "rO0ABXNyACFjb20udHJpdG9uc2RrLmltcGwuT25EZW1hbmRTdHJlYW0FOLanu72/IQIAAUwAA3VybHQAEkxqYXZhL2xhbmcvU3RyaW5nO3hwdAAZaHR0cHM6Ly9leGFtcGxlLmNvbS9hLm1wMw==";
+
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 20000;
+    // per encode+decode; Robolectric runs Parcel in Java, on a device it is several times faster
+    private static final long MAX_PARCEL_NS = 200 * 1000;
+    private static final long MAX_SERIALIZABLE_NS = 500 * 1000;
+
+    @Test
+    public void readsBaselineCopies() throws Exception {
+        Stream stream = (Stream) deserialize(Base64.getDecoder().decode(BASELINE_STREAM));
+        assertEquals("SLAM!", stream.getTitle());
+        assertEquals("Non-stop", stream.getDescription());
+        assertEquals("SLAM", stream.getTritonName());
+        assertEquals("SLAM_MP3", stream.getTritonMount());
+        assertTrue(stream.isActive());
+
+        Track track = (Track) deserialize(Base64.getDecoder().decode(BASELINE_TRACK));
+        assertEquals(new Track("Title", "Artist", 180000), track);
+        assertNull(track.getCoverUrl());
+
+        OnDemandStream onDemandStream = (OnDemandStream) deserialize(Base64.getDecoder().decode(BASELINE_ON_DEMAND));
+        assertEquals("https://example.com/a.mp3", onDemandStream.getURL());
+    }
+
+    @Test
+    public void parcelRoundTrip() {
+        Track track = track();
+        assertEquals(track, unparcel(parcel(track), Track.CREATOR));
+
+        Stream stream = unparcel(parcel(stream()), Stream.CREATOR);
+        assertEquals("SLAM_MP3", stream.getTritonMount());
+        assertEquals(2, stream.getState());
+        assertTrue(stream.isActive());
+
+        assertEquals("https://example.com/a.mp3", unparcel(parcel(new OnDemandStream("https://example.com/a.mp3")), OnDemandStream.CREATOR).getURL());
+    }
+
+    @Test
+    public void serializableRoundTrip() throws Exception {
+        Track track = track();
+        assertEquals(track, deserialize(serialize(track)));
+    }
+
+    /**
+     * Encodes and decodes a Track, the model sent most often, both ways. Fails when either form
+     * exceeds its budget, e.g. after a field that drags a large object graph along.
+     */
+    @Test
+    public void encodeDecodeBenchmark() throws Exception {
+        Track track = track();
+        benchmarkParcel(track, WARMUP_ROUNDS);
+        benchmarkSerializable(track, WARMUP_ROUNDS);
+        long parcelNs = benchmarkParcel(track, ROUNDS);
+        long serializableNs = benchmarkSerializable(track, ROUNDS);
+
+        new BenchmarkReport(ModelEncodingTest.class, "track encode decode")
+                .put("parcelNs", parcelNs / ROUNDS)
+                .put("serializableNs", serializableNs / ROUNDS)
+                .put("rounds", ROUNDS)
+                .write();
+        assertTrue("Parcel " + parcelNs / ROUNDS + "ns exceeds " + MAX_PARCEL_NS + "ns", parcelNs / ROUNDS <= MAX_PARCEL_NS);
+        assertTrue("Serializable " + serializableNs / ROUNDS + "ns exceeds " + MAX_SERIALIZABLE_NS + "ns",
+                serializableNs / ROUNDS <= MAX_SERIALIZABLE_NS);
+    }
+
+    private static long benchmarkParcel(Track track, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Parcel parcel = Parcel.obtain();
+            track.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Track.CREATOR.createFromParcel(parcel);
+            parcel.recycle();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long benchmarkSerializable(Track track, int rounds) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            deserialize(serialize(track));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Track track() {
+        Track track = new Track("Title", "Artist", 180000);
+        track.setAlbum("Album");
+        track.setCoverUrl("https://example.com/cover.jpg");
+        track.setStartedAt(1600000000000L);
+        return track;
+    }
+
+    private static Stream stream() {
+        Stream stream = new Stream("SLAM!", "Non-stop", "SLAM", "SLAM_MP3", true);
+        stream.setState(2);
+        return stream;
+    }
+
+    private static Parcel parcel(Parcelable parcelable) {
+        Parcel parcel = Parcel.obtain();
+        parcelable.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        return parcel;
+    }
+
+    private static <T> T unparcel(Parcel parcel, Parcelable.Creator<T> creator) {
+        try {
+            return creator.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Benchmarks building the player notification from scratch: the RemoteViews, the builder and the
+ * startForeground() that posts it, with a track on screen. This runs on every play, so it fails
+ * when the median or the 99th percentile exceed budgets sized for Robolectric on a slow CI machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class NotificationBenchmarkTest {
+
+    private static final int WARMUP_OPS = 500;
+    private static final int OPS = 5000;
+    private static final long MAX_MEDIAN_NS = 2 * 1000 * 1000;
+    private static final long MAX_P99_NS = 20 * 1000 * 1000;
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private boolean mOriginalNotification;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private Looper mLooper;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        mOriginalNotification = PlayerService.IS_NOTIF_ACTIVE;
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                return new FakePlayerEngine(new FakePlayerEngine.Script()
+                        .state(0, TritonPlayer.STATE_CONNECTING)
+                        .state(10, TritonPlayer.STATE_PLAYING)
+                        .track(10, "Title", "Artist", 180000), settings);
+            }
+        };
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+        PlayerService.IS_NOTIF_ACTIVE = true;
+
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mLooper = mService.getPlaybackLooper();
+        mService.play(new Stream("Station", "Description", "STATION", "STATION_MP3"));
+        for (int i = 0; i < 10; i++) {
+            shadowOf(mLooper).idle();
+            ShadowSystemClock.advanceBy(Duration.ofMillis(5));
+        }
+        shadowOf(mLooper).idle();
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+        PlayerService.IS_NOTIF_ACTIVE = mOriginalNotification;
+    }
+
+    @Test
+    public void showNotification() {
+        assertEquals("Title", mService.getCurrentTrack().getTitle());
+        assertTrue(mService.isShowingNotification());
+
+        show(WARMUP_OPS);
+        long[] elapsed = show(OPS);
+        Arrays.sort(elapsed);
+        long median = elapsed[OPS / 2];
+        long p99 = elapsed[OPS * 99 / 100];
+        new BenchmarkReport(NotificationBenchmarkTest.class, "show notification")
+                .put("medianNs", median)
+                .put("p99Ns", p99)
+                .put("ops", OPS)
+                .write();
+        assertTrue("median " + median + "ns exceeds " + MAX_MEDIAN_NS + "ns", median <= MAX_MEDIAN_NS);
+        assertTrue("p99 " + p99 + "ns exceeds " + MAX_P99_NS + "ns", p99 <= MAX_P99_NS);
+    }
+
+    /**
+     * Hides and shows the notification again on the playback thread, where the service does it.
+     */
+    private long[] show(final int ops) {
+        final long[] elapsed = new long[ops];
+        new Handler(mLooper).post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ops; i++) {
+                    mService.hideNotification();
+                    long start = System.nanoTime();
+                    mService.showNotification();
+                    elapsed[i] = System.nanoTime() - start;
+                }
+            }
+        });
+        shadowOf(mLooper).idle();
+        assertTrue(mService.isShowingNotification());
+        return elapsed;
+    }
+}
@@ -0,0 +1,252 @@
+package com.tritonsdk.impl;
+
+import com.tritondigital.player.CuePoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs NowPlayingService against a local HTTP server through {@link NowPlayingService#ENDPOINT}.
+ * Fetches run on real threads, the TTL and the batch window follow Robolectric's clock.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class NowPlayingServiceTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    private static final long STEP_MS = 20;
+
+    private final BlockingQueue<Map<String, Track>> mChanges = new LinkedBlockingQueue<>();
+
+    private String mOriginalEndpoint;
+    private MockWebServer mServer;
+    private NowPlayingService mService;
+
+    @Before
+    public void setUp() throws IOException {
+        mOriginalEndpoint = NowPlayingService.ENDPOINT;
+        mServer = new MockWebServer();
+        mServer.start();
+        NowPlayingService.ENDPOINT = mServer.url("/nowplaying").toString();
+        mService = new NowPlayingService(new NowPlayingService.Listener() {
+            @Override
+            public void onNowPlayingChanged(Map<String, Track> changes) {
+                mChanges.add(changes);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mService.release();
+        mServer.shutdown();
+        NowPlayingService.ENDPOINT = mOriginalEndpoint;
+    }
+
+    @Test
+    public void parsesTheFirstTrack() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(response(
+                nowPlaying("Title", "Artist", "Album", "https://example.com/cover.jpg", 215000, 1700000000000L)
+                        + nowPlaying("Older", "Someone", null, null, 0, 0))));
+        mService.subscribe(Collections.singleton("SLAM_MP3"));
+
+        Map<String, Track> changes = awaitChanges();
+        Track track = changes.get("SLAM_MP3");
+        assertEquals("Title", track.getTitle());
+        assertEquals("Artist", track.getArtist());
+        assertEquals("Album", track.getAlbum());
+        assertEquals("https://example.com/cover.jpg", track.getCoverUrl());
+        assertEquals(215000, track.getDuration());
+        assertEquals(1700000000000L, track.getStartedAt());
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("SLAM_MP3", request.getRequestUrl().queryParameter("mountName"));
+        assertEquals("1", request.getRequestUrl().queryParameter("numberToFetch"));
+    }
+
+    @Test
+    public void reportsNoTrackOnlyAsAChange() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(response(nowPlaying("Title", "Artist", null, null, 0, 0))));
+        mServer.enqueue(new MockResponse().setBody(response("")));
+        mService.subscribe(Collections.singleton("SLAM_MP3"));
+        assertNotNull(awaitChanges().get("SLAM_MP3"));
+
+        advance(NowPlayingService.TTL_MS);
+        Map<String, Track> changes = awaitChanges();
+        assertTrue(changes.containsKey("SLAM_MP3"));
+        assertNull(changes.get("SLAM_MP3"));
+    }
+
+    @Test
+    public void refetchesOnlyAfterTheTtl() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(response(nowPlaying("First", "Artist", null, null, 0, 0))));
+        mServer.enqueue(new MockResponse().setBody(response(nowPlaying("Second", "Artist", null, null, 0, 0))));
+        mService.subscribe(Collections.singleton("SLAM_MP3"));
+        assertEquals("First", awaitChanges().get("SLAM_MP3").getTitle());
+        assertNotNull(mServer.takeRequest());
+
+        // the same mount again, and most of the TTL, come from the cache
+        mService.subscribe(Arrays.asList("SLAM_MP3"));
+        advance(NowPlayingService.TTL_MS - 1000);
+        assertNull(mServer.takeRequest(200, TimeUnit.MILLISECONDS));
+
+        advance(1000);
+        assertNotNull(mServer.takeRequest(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("Second", awaitChanges().get("SLAM_MP3").getTitle());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void stopsFetchingUnsubscribedMounts() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(response(nowPlaying("Title", "Artist", null, null, 0, 0))));
+        mService.subscribe(Collections.singleton("SLAM_MP3"));
+        awaitChanges();
+
+        mService.subscribe(Collections.<String>emptyList());
+        advance(2 * NowPlayingService.TTL_MS);
+        Thread.sleep(200);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void batchWindowStartsAtTheFirstChange() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String mount = request.getRequestUrl().queryParameter("mountName");
+                if (mount.equals("LATE_MP3")) {
+                    release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setBody(response(nowPlaying(mount, "Artist", null, null, 0, 0)));
+            }
+        });
+        mService.subscribe(Arrays.asList("EARLY_MP3", "LATE_MP3"));
+        Thread.sleep(200);
+        advance(NowPlayingService.BATCH_WINDOW_MS / 2);
+        assertNull(mChanges.poll(100, TimeUnit.MILLISECONDS));
+
+        // a change inside the window joins the batch instead of pushing it back
+        release.countDown();
+        Thread.sleep(200);
+        advance(NowPlayingService.BATCH_WINDOW_MS - NowPlayingService.BATCH_WINDOW_MS / 2);
+        Map<String, Track> changes = mChanges.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(changes);
+        assertEquals(new HashSet<>(Arrays.asList("EARLY_MP3", "LATE_MP3")), changes.keySet());
+    }
+
+    @Test
+    public void limitsConcurrentRequests() throws Exception {
+        final int mounts = 3 * NowPlayingService.MAX_CONCURRENT_REQUESTS;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String mount = request.getRequestUrl().queryParameter("mountName");
+                requested.add(mount);
+                int now = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), now));
+                }
+                release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                active.decrementAndGet();
+                return new MockResponse().setBody(response(nowPlaying(mount, "Artist", null, null, 0, 0)));
+            }
+        });
+
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < mounts; i++) {
+            all.add("MOUNT" + i);
+        }
+        mService.subscribe(all);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (active.get() < NowPlayingService.MAX_CONCURRENT_REQUESTS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // give a request over the limit the time to show up, and ask for the same mounts again
+        mService.subscribe(all);
+        Thread.sleep(200);
+        assertEquals(NowPlayingService.MAX_CONCURRENT_REQUESTS, active.get());
+
+        release.countDown();
+        int reported = 0;
+        while (reported < mounts) {
+            reported += awaitChanges().size();
+        }
+        assertEquals(mounts, reported);
+        assertEquals(NowPlayingService.MAX_CONCURRENT_REQUESTS, maxActive.get());
+        // nothing was fetched twice
+        assertEquals(mounts, requested.size());
+        assertEquals(mounts, new HashSet<>(requested).size());
+    }
+
+    /**
+     * Moves the clock in steps until the next batch of changes comes out.
+     */
+    private Map<String, Track> awaitChanges() throws InterruptedException {
+        for (long waited = 0; waited < TIMEOUT_MS; waited += STEP_MS) {
+            Map<String, Track> changes = mChanges.poll(STEP_MS, TimeUnit.MILLISECONDS);
+            if (changes != null) return changes;
+            ShadowSystemClock.advanceBy(Duration.ofMillis(STEP_MS));
+        }
+        throw new AssertionError("no changes reported");
+    }
+
+    private static void advance(long ms) {
+        ShadowSystemClock.advanceBy(Duration.ofMillis(ms));
+    }
+
+    private static String response(String infos) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<nowplaying-info-list>\n" + infos + "</nowplaying-info-list>\n";
+    }
+
+    private static String nowPlaying(String title, String artist, String album, String coverUrl, int duration, long startedAt) {
+        StringBuilder info = new StringBuilder("<nowplaying-info type=\"track\">\n");
+        property(info, CuePoint.CUE_TITLE, title);
+        property(info, CuePoint.TRACK_ARTIST_NAME, artist);
+        property(info, CuePoint.TRACK_ALBUM_NAME, album);
+        property(info, CuePoint.TRACK_COVER_URL, coverUrl);
+        if (duration > 0) property(info, CuePoint.CUE_TIME_DURATION, String.valueOf(duration));
+        if (startedAt > 0) property(info, CuePoint.CUE_START_TIMESTAMP, String.valueOf(startedAt));
+        return info.append("</nowplaying-info>\n").toString();
+    }
+
+    private static void property(StringBuilder info, String name, String value) {
+        if (value == null) return;
+        info.append("<property name=\"").append(name).append("\"><![CDATA[").append(value).append("]]></property>\n");
+    }
+}
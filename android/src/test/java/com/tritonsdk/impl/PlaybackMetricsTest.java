@@ -0,0 +1,85 @@
+package com.tritonsdk.impl;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaybackMetricsTest {
+
+    private static final String MOUNT = "SLAM_MP3";
+
+    private PlaybackMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = new PlaybackMetrics();
+    }
+
+    @Test
+    public void recordsTimeToFirstAudio() {
+        play(1000, 1100, 1600, false);
+
+        PlaybackMetrics.MountMetrics metrics = mMetrics.snapshot().get(MOUNT);
+        assertEquals(1, metrics.plays);
+        assertEquals(1, metrics.commandToConnecting.getCount());
+        assertEquals(100, metrics.commandToConnecting.getSum());
+        assertEquals(500, metrics.connectingToPlaying.getSum());
+        assertEquals(600, metrics.timeToFirstAudio.getSum());
+    }
+
+    @Test
+    public void splitsReusedPlayers() {
+        play(500, 550, 1400, false);
+        play(2000, 2020, 2200, true);
+        play(3000, 3010, 3300, true);
+
+        PlaybackMetrics.MountMetrics metrics = mMetrics.snapshot().get(MOUNT);
+        assertEquals(3, metrics.plays);
+        assertEquals(2, metrics.reusedPlays);
+        assertEquals(3, metrics.timeToFirstAudio.getCount());
+        assertEquals(2, metrics.timeToFirstAudioReused.getCount());
+        assertEquals(200 + 300, metrics.timeToFirstAudioReused.getSum());
+        assertEquals(300, metrics.timeToFirstAudioReused.getMax());
+    }
+
+    @Test
+    public void sumsPerProfile() {
+        play(100, 110, 200, false);
+        mMetrics.onCommand("OTHER_MP3", BufferProfile.LOW_LATENCY, 1000);
+        mMetrics.onStateChanged(TritonPlayer.STATE_PLAYING, 1200);
+
+        assertEquals(1, mMetrics.snapshotByProfile().get(BufferProfile.BALANCED).plays);
+        assertEquals(200, mMetrics.snapshotByProfile().get(BufferProfile.LOW_LATENCY).timeToFirstAudio.getSum());
+    }
+
+    @Test
+    public void countsAnErrorOnce() {
+        mMetrics.onCommand(MOUNT, BufferProfile.BALANCED, 100);
+        mMetrics.onStateChanged(TritonPlayer.STATE_ERROR, 110);
+        mMetrics.onStateChanged(TritonPlayer.STATE_ERROR, 120);
+
+        assertEquals(1, mMetrics.snapshot().get(MOUNT).errors);
+    }
+
+    @Test
+    public void snapshotIsACopy() {
+        play(100, 110, 200, false);
+        PlaybackMetrics.MountMetrics copy = mMetrics.snapshot().get(MOUNT);
+        play(1000, 1010, 1100, false);
+
+        assertEquals(1, copy.plays);
+        assertEquals(1, copy.timeToFirstAudio.getCount());
+    }
+
+    private void play(long commandAt, long connectingAt, long playingAt, boolean reused) {
+        mMetrics.onCommand(MOUNT, BufferProfile.BALANCED, commandAt);
+        if (reused) {
+            mMetrics.onPlayerReused();
+        }
+        mMetrics.onStateChanged(TritonPlayer.STATE_CONNECTING, connectingAt);
+        mMetrics.onStateChanged(TritonPlayer.STATE_PLAYING, playingAt);
+    }
+}
@@ -0,0 +1,343 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives PlayerService's playback thread with {@link FakePlayerEngine}s. Engines announce the mount
+ * they were built for as their track title, so late events from a replaced engine are visible.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class PlaybackThreadTest {
+
+    private static final long CONNECT_MS = 20;
+    private static final long CUE_INTERVAL_MS = 50;
+
+    private final List<FakePlayerEngine> mEngines = Collections.synchronizedList(new ArrayList<FakePlayerEngine>());
+    private final List<Integer> mStates = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> mTitles = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicReference<String> mFailure = new AtomicReference<>();
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private Looper mLooper;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                String mount = settings.getString(TritonPlayer.SETTINGS_STATION_MOUNT);
+                FakePlayerEngine engine = new FakePlayerEngine(new FakePlayerEngine.Script()
+                        .state(0, TritonPlayer.STATE_CONNECTING)
+                        .state(CONNECT_MS, TritonPlayer.STATE_PLAYING)
+                        .repeat()
+                        .track(CUE_INTERVAL_MS, mount, "Artist", (int) CUE_INTERVAL_MS), settings);
+                mEngines.add(engine);
+                return engine;
+            }
+        };
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mLooper = mService.getPlaybackLooper();
+        mService.addListener(new PlayerService.OnPlayerEventListener() {
+            @Override
+            public void onStreamChanged(Stream stream) {
+                checkThread();
+            }
+
+            @Override
+            public void onTrackChanged(Track track) {
+                checkThread();
+                if (track != null) {
+                    mTitles.add(track.getTitle());
+                }
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+                checkThread();
+                if (!mStates.isEmpty() && mStates.get(mStates.size() - 1) == state) {
+                    fail("state " + state + " published twice in a row");
+                }
+                if (mService.getState() != state) {
+                    fail("snapshot " + mService.getState() + " does not match published " + state);
+                }
+                mStates.add(state);
+            }
+
+            @Override
+            public void onQueueIndexChanged(int index) {
+                checkThread();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+        PlayerService.REUSE_PLAYER = false;
+    }
+
+    @Test
+    public void playPauseResumeStop() throws Exception {
+        mService.play(station(1));
+        advance(CONNECT_MS + CUE_INTERVAL_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        assertEquals(station(1).getTritonMount(), mService.getCurrentTrack().getTitle());
+
+        mService.pause();
+        drain();
+        assertEquals(TritonPlayer.STATE_PAUSED, mService.getState());
+
+        // a live stream connects again after a pause
+        mService.unPause();
+        advance(CONNECT_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        mService.stop();
+        drain();
+        assertEquals(TritonPlayer.STATE_STOPPED, mService.getState());
+        assertNull(mService.getCurrentTrack());
+
+        List<Integer> expected = new ArrayList<>();
+        Collections.addAll(expected, TritonPlayer.STATE_CONNECTING, TritonPlayer.STATE_PLAYING, TritonPlayer.STATE_PAUSED,
+                TritonPlayer.STATE_CONNECTING, TritonPlayer.STATE_PLAYING, TritonPlayer.STATE_STOPPED);
+        assertEquals(expected, mStates);
+        assertNull(mFailure.get());
+    }
+
+    @Test
+    public void playAfterPauseOrStopKeepsThePlayer() throws Exception {
+        mService.play(station(1));
+        advance(CONNECT_MS);
+        mService.pause();
+        drain();
+        mService.play();
+        advance(CONNECT_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        mService.stop();
+        drain();
+        mService.play();
+        advance(CONNECT_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        assertEquals(1, mEngines.size());
+        assertNull(mFailure.get());
+    }
+
+    @Test
+    public void resentTrackIsCountedNotPublished() throws Exception {
+        mService.play(station(1));
+        advance(CONNECT_MS + 4 * CUE_INTERVAL_MS);
+
+        // the engine resends the same track on every cue
+        assertEquals(1, mTitles.size());
+        assertTrue(mService.getPlaybackMetrics().get(station(1).getTritonMount()).duplicateMetadata >= 3);
+        assertNull(mFailure.get());
+    }
+
+    @Test
+    public void reusesThePlayerOfTheStationPlayedLast() throws Exception {
+        PlayerService.REUSE_PLAYER = true;
+        mService.play(station(1));
+        advance(CONNECT_MS);
+        mService.play(station(2));
+        advance(CONNECT_MS);
+        mService.play(station(1));
+        advance(CONNECT_MS);
+        assertEquals(2, mEngines.size());
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        // playing 3 parks station 1 in place of 2, so 2 needs a new player
+        mService.play(station(3));
+        advance(CONNECT_MS);
+        mService.play(station(2));
+        advance(CONNECT_MS);
+        assertEquals(4, mEngines.size());
+        assertEquals(TritonPlayer.STATE_RELEASED, mEngines.get(1).getState());
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        int plays = 0;
+        int reused = 0;
+        for (PlaybackMetrics.MountMetrics metrics : mService.getPlaybackMetrics().values()) {
+            plays += metrics.timeToFirstAudio.getCount();
+            reused += metrics.timeToFirstAudioReused.getCount();
+        }
+        assertEquals(5, plays);
+        assertEquals(1, reused);
+        assertNull(mFailure.get());
+    }
+
+    @Test
+    public void replacedEngineIsNotHeard() throws Exception {
+        mService.play(station(1));
+        drain();
+        // station 1 is still connecting when station 2 replaces it
+        mService.play(station(2));
+        advance(CONNECT_MS + 3 * CUE_INTERVAL_MS);
+
+        assertEquals(2, mEngines.size());
+        assertEquals(TritonPlayer.STATE_RELEASED, mEngines.get(0).getState());
+        assertTrue(mTitles.size() > 0);
+        for (String title : mTitles) {
+            assertEquals(station(2).getTritonMount(), title);
+        }
+        assertNull(mFailure.get());
+    }
+
+    @Test
+    public void stopDuringConnectDropsLatePlaying() throws Exception {
+        mService.play(station(1));
+        drain();
+        mService.stop();
+        // stop() only stops a player that plays, a connecting one keeps going
+        advance(CONNECT_MS);
+        mService.stop();
+        advance(CUE_INTERVAL_MS);
+
+        assertEquals(TritonPlayer.STATE_STOPPED, mService.getState());
+        assertNull(mFailure.get());
+    }
+
+    /**
+     * Several threads issue random commands while the scripts run. Afterwards the published states
+     * must match the snapshot, all callbacks must have come on the playback thread, and every engine
+     * but the current one and the standbys must be released.
+     */
+    @Test
+    public void concurrentCommands() throws Exception {
+        final int threads = 4;
+        final int commands = 500;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < commands; i++) {
+                            switch (random.nextInt(6)) {
+                                case 0:
+                                case 1:
+                                    mService.play(station(random.nextInt(5)));
+                                    break;
+                                case 2:
+                                    mService.pause();
+                                    break;
+                                case 3:
+                                    mService.unPause();
+                                    break;
+                                case 4:
+                                    mService.stop();
+                                    break;
+                                case 5:
+                                    mService.prewarm(station(random.nextInt(5)));
+                                    break;
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        fail(e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            advance(5);
+        }
+        advance(CONNECT_MS + CUE_INTERVAL_MS);
+
+        int state = mService.getState();
+        assertTrue(mStates.size() > 0);
+        assertEquals(state, (int) mStates.get(mStates.size() - 1));
+
+        int alive = 0;
+        synchronized (mEngines) {
+            for (FakePlayerEngine engine : mEngines) {
+                if (engine.getState() != TritonPlayer.STATE_RELEASED) alive++;
+            }
+        }
+        assertTrue(alive + " engines not released", alive <= 1 + PlayerService.STANDBY_POOL_SIZE);
+
+        mService.stop();
+        advance(CONNECT_MS);
+        mService.stop();
+        drain();
+        assertNotEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        assertNull(mFailure.get());
+    }
+
+    private static Stream station(int i) {
+        return new Stream("Station " + i, "", "STATION" + i, "STATION" + i + "_MP3");
+    }
+
+    private void checkThread() {
+        if (Looper.myLooper() != mLooper) {
+            fail("callback on " + Thread.currentThread().getName());
+        }
+    }
+
+    private void fail(String message) {
+        mFailure.compareAndSet(null, message);
+    }
+
+    /**
+     * Runs what the playback thread has queued up to now.
+     */
+    private void drain() {
+        shadowOf(mLooper).idle();
+    }
+
+    /**
+     * Moves the clock in small steps, so the engines' scripted steps run in their order.
+     */
+    private void advance(long ms) {
+        drain();
+        for (long elapsed = 0; elapsed < ms; elapsed += 5) {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(5));
+            drain();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives PlayerService's reconnect supervisor with {@link FakePlayerEngine}s that fail or never
+ * connect. Every reconnect builds a new engine, so the engines' creation times show the backoff.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class ReconnectSupervisorTest {
+
+    private static final long CONNECT_MS = 50;
+    private static final long STEP_MS = 5;
+    private static final String MOUNT = "STATION_MP3";
+
+    private static final FakePlayerEngine.Script FAILING = new FakePlayerEngine.Script()
+            .state(0, TritonPlayer.STATE_CONNECTING)
+            .state(CONNECT_MS, TritonPlayer.STATE_ERROR);
+    private static final FakePlayerEngine.Script STUCK = new FakePlayerEngine.Script()
+            .state(0, TritonPlayer.STATE_CONNECTING);
+    private static final FakePlayerEngine.Script PLAYING = FakePlayerEngine.Script.station(CONNECT_MS, 1000, 1);
+
+    // scripts of the engines to build, in order, the last one for any further engine
+    private final List<FakePlayerEngine.Script> mScripts = new ArrayList<>();
+    private final List<Long> mCreatedAt = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> mFailedAt = Collections.synchronizedList(new ArrayList<Long>());
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private boolean mOriginalAutoReconnect;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private Looper mLooper;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        mOriginalAutoReconnect = PlayerService.AUTO_RECONNECT;
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                int index = Math.min(mCreatedAt.size(), mScripts.size() - 1);
+                mCreatedAt.add(SystemClock.elapsedRealtime());
+                return new FakePlayerEngine(mScripts.get(index), settings);
+            }
+        };
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+        PlayerService.AUTO_RECONNECT = true;
+
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mLooper = mService.getPlaybackLooper();
+        mService.addListener(new PlayerService.OnPlayerEventListener() {
+            @Override
+            public void onStreamChanged(Stream stream) {
+            }
+
+            @Override
+            public void onTrackChanged(Track track) {
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+                if (state == TritonPlayer.STATE_ERROR) {
+                    mFailedAt.add(SystemClock.elapsedRealtime());
+                }
+            }
+
+            @Override
+            public void onQueueIndexChanged(int index) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+        PlayerService.AUTO_RECONNECT = mOriginalAutoReconnect;
+    }
+
+    @Test
+    public void backsOffAfterErrorsUntilItPlays() {
+        Collections.addAll(mScripts, FAILING, FAILING, FAILING, PLAYING);
+        play();
+        advance(8000 + 4 * CONNECT_MS);
+
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        assertEquals(4, mCreatedAt.size());
+        assertEquals(3, mFailedAt.size());
+        for (int attempt = 0; attempt < 3; attempt++) {
+            assertBackoff(attempt, mCreatedAt.get(attempt + 1) - mFailedAt.get(attempt));
+        }
+
+        PlaybackMetrics.MountMetrics metrics = metrics();
+        assertEquals(3, metrics.reconnects);
+        assertEquals(0, metrics.reconnectFailures);
+        assertEquals(1, metrics.reconnectTime.getCount());
+        // from the first error to playing again
+        long outage = mCreatedAt.get(3) + CONNECT_MS - mFailedAt.get(0);
+        assertTrue(Math.abs(metrics.reconnectTime.getMax() - outage) <= STEP_MS);
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        mScripts.add(FAILING);
+        play();
+        // every backoff at its longest, and then some
+        advance(2 * 63000);
+
+        assertEquals(TritonPlayer.STATE_ERROR, mService.getState());
+        assertEquals(1 + ReconnectSupervisor.DEFAULT_MAX_ATTEMPTS, mCreatedAt.size());
+        for (int attempt = 0; attempt < ReconnectSupervisor.DEFAULT_MAX_ATTEMPTS; attempt++) {
+            assertBackoff(attempt, mCreatedAt.get(attempt + 1) - mFailedAt.get(attempt));
+        }
+
+        PlaybackMetrics.MountMetrics metrics = metrics();
+        assertEquals(ReconnectSupervisor.DEFAULT_MAX_ATTEMPTS, metrics.reconnects);
+        assertEquals(1, metrics.reconnectFailures);
+        assertEquals(0, metrics.reconnectTime.getCount());
+    }
+
+    @Test
+    public void reconnectsAStuckConnect() {
+        Collections.addAll(mScripts, STUCK, PLAYING);
+        play();
+        advance(ReconnectSupervisor.DEFAULT_CONNECT_TIMEOUT_MS - STEP_MS);
+        assertEquals(1, mCreatedAt.size());
+        assertEquals(TritonPlayer.STATE_CONNECTING, mService.getState());
+
+        advance(STEP_MS + ReconnectSupervisor.DEFAULT_BASE_DELAY_MS + CONNECT_MS);
+        assertEquals(2, mCreatedAt.size());
+        assertBackoff(0, mCreatedAt.get(1) - mCreatedAt.get(0) - ReconnectSupervisor.DEFAULT_CONNECT_TIMEOUT_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+
+        PlaybackMetrics.MountMetrics metrics = metrics();
+        assertEquals(1, metrics.reconnects);
+        assertEquals(1, metrics.reconnectTime.getCount());
+        // timed from the stall, not from the play
+        assertTrue(metrics.reconnectTime.getMax() <= ReconnectSupervisor.DEFAULT_BASE_DELAY_MS + CONNECT_MS + STEP_MS);
+    }
+
+    @Test
+    public void stopEndsTheRetries() {
+        mScripts.add(FAILING);
+        play();
+        advance(CONNECT_MS);
+        mService.stop();
+        advance(2 * ReconnectSupervisor.DEFAULT_MAX_DELAY_MS);
+
+        assertEquals(1, mCreatedAt.size());
+        assertEquals(0, metrics().reconnects);
+    }
+
+    /**
+     * Equal jitter: between half the step and the whole step, which doubles from the base delay up
+     * to the max delay. One clock step of slack for where the failure landed in it.
+     */
+    private static void assertBackoff(int attempt, long delayMs) {
+        long step = Math.min(ReconnectSupervisor.DEFAULT_BASE_DELAY_MS << attempt, ReconnectSupervisor.DEFAULT_MAX_DELAY_MS);
+        assertTrue("attempt " + attempt + " waited " + delayMs + "ms", delayMs >= step / 2 - STEP_MS && delayMs <= step + STEP_MS);
+    }
+
+    private PlaybackMetrics.MountMetrics metrics() {
+        return mService.getPlaybackMetrics().get(MOUNT);
+    }
+
+    private void play() {
+        mService.play(new Stream("Station", "", "STATION", MOUNT));
+        shadowOf(mLooper).idle();
+    }
+
+    private void advance(long ms) {
+        for (long elapsed = 0; elapsed < ms; elapsed += STEP_MS) {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(STEP_MS));
+            shadowOf(mLooper).idle();
+        }
+    }
+}
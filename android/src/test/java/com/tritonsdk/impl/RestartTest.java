@@ -0,0 +1,212 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * What a START_STICKY restart does with the session saved before the process died. Engines record
+ * whether the service was already in the foreground when they were built.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class RestartTest {
+
+    private static final long CONNECT_MS = 20;
+    private static final long CUE_INTERVAL_MS = 50;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final List<FakePlayerEngine> mEngines = new ArrayList<>();
+    private final List<Boolean> mForeground = new ArrayList<>();
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private boolean mOriginalResume;
+    private boolean mOriginalNotification;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private Looper mLooper;
+    private File mSessionFile;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        mOriginalResume = PlayerService.RESUME_AFTER_RESTART;
+        mOriginalNotification = PlayerService.IS_NOTIF_ACTIVE;
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                // a new track on every cue, each one schedules a session save
+                FakePlayerEngine engine = new FakePlayerEngine(FakePlayerEngine.Script.station(CONNECT_MS, CUE_INTERVAL_MS, 10),
+                        settings);
+                mEngines.add(engine);
+                mForeground.add(mService.isShowingNotification());
+                return engine;
+            }
+        };
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+        mSessionFile = new File(RuntimeEnvironment.getApplication().getFilesDir(), "session.bin");
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+        PlayerService.RESUME_AFTER_RESTART = mOriginalResume;
+        PlayerService.IS_NOTIF_ACTIVE = mOriginalNotification;
+    }
+
+    @Test
+    public void resumesInTheForeground() throws Exception {
+        write(new SessionStore.Session(station(), Collections.<OnDemandStream>emptyList(), -1, null, true, 0, null,
+                System.currentTimeMillis()));
+        // a new process, the app has not set anything
+        PlayerService.RESUME_AFTER_RESTART = false;
+        PlayerService.IS_NOTIF_ACTIVE = false;
+
+        restart();
+        assertEquals(1, mEngines.size());
+        assertTrue("playback started before startForeground()", mForeground.get(0));
+        assertNotNull(shadowOf(mService).getLastForegroundNotification());
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        assertEquals("STATION_MP3", mService.getCurrentStream().getTritonMount());
+
+        // and it resumes again if this process dies too
+        advance(2 * PlayerService.SESSION_SAVE_DELAY_MS);
+        awaitTrackSaved();
+        Thread.sleep(200);
+        assertTrue(load().resume);
+    }
+
+    @Test
+    public void stopsWithoutAResumableSession() throws Exception {
+        write(new SessionStore.Session(station(), Collections.<OnDemandStream>emptyList(), -1, null, false, 0, null,
+                System.currentTimeMillis()));
+        PlayerService.IS_NOTIF_ACTIVE = true;
+
+        restart();
+        assertTrue(mEngines.isEmpty());
+        assertFalse(mService.isShowingNotification());
+        assertTrue(shadowOf(mService).isStoppedBySelf());
+    }
+
+    @Test
+    public void savesResumableOnlyWithTheNotification() throws Exception {
+        PlayerService.RESUME_AFTER_RESTART = true;
+        PlayerService.IS_NOTIF_ACTIVE = false;
+        start();
+        mService.play(station());
+        advance(CONNECT_MS + PlayerService.SESSION_SAVE_DELAY_MS);
+        assertFalse(awaitSession(false).resume);
+    }
+
+    @Test
+    public void swipingAwayEndsResume() throws Exception {
+        PlayerService.RESUME_AFTER_RESTART = true;
+        PlayerService.IS_NOTIF_ACTIVE = true;
+        start();
+        mService.play(station());
+        advance(CONNECT_MS + PlayerService.SESSION_SAVE_DELAY_MS);
+        assertTrue(awaitSession(true).resume);
+
+        mService.onTaskRemoved(null);
+        // playback goes on, and the tracks it announces are saved again
+        advance(2 * PlayerService.SESSION_SAVE_DELAY_MS);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        awaitSession(false);
+        // the saves after the removal are queued behind it
+        Thread.sleep(200);
+        assertFalse(load().resume);
+    }
+
+    private static Stream station() {
+        return new Stream("Station", "", "STATION", "STATION_MP3");
+    }
+
+    private void start() {
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mLooper = mService.getPlaybackLooper();
+    }
+
+    private void restart() {
+        start();
+        mService.onStartCommand(null, 0, 1);
+        advance(CONNECT_MS + CUE_INTERVAL_MS);
+    }
+
+    private void write(SessionStore.Session session) throws InterruptedException {
+        SessionStore store = new SessionStore(mSessionFile);
+        store.write(session);
+        store.shutdown();
+        awaitSession(session.resume);
+    }
+
+    private SessionStore.Session load() {
+        SessionStore store = new SessionStore(mSessionFile);
+        SessionStore.Session session = store.load();
+        store.shutdown();
+        return session;
+    }
+
+    /**
+     * @return the session on disk once it says resume as expected
+     */
+    private SessionStore.Session awaitSession(boolean resume) throws InterruptedException {
+        for (long waited = 0; waited < TIMEOUT_MS; waited += 10) {
+            SessionStore.Session session = load();
+            if (session != null && session.resume == resume) return session;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("no session with resume " + resume + " written");
+    }
+
+    /**
+     * Waits for the service's own save; the sessions the tests write have no track.
+     */
+    private void awaitTrackSaved() throws InterruptedException {
+        for (long waited = 0; waited < TIMEOUT_MS; waited += 10) {
+            SessionStore.Session session = load();
+            if (session != null && session.track != null) return;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("the service saved no session");
+    }
+
+    private void advance(long ms) {
+        shadowOf(mLooper).idle();
+        for (long elapsed = 0; elapsed < ms; elapsed += 5) {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(5));
+            shadowOf(mLooper).idle();
+        }
+    }
+}
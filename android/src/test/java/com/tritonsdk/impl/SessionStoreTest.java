@@ -0,0 +1,102 @@
+package com.tritonsdk.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class SessionStoreTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheQueueAndItsIndex() throws Exception {
+        File file = new File(mFolder.getRoot(), "session.bin");
+        List<OnDemandStream> queue = Arrays.asList(new OnDemandStream("https://example.com/1.mp3"),
+                new OnDemandStream("https://example.com/2.mp3"), new OnDemandStream("https://example.com/3.mp3"));
+        Track track = new Track("Title", "Artist", 180000);
+        write(file, new SessionStore.Session(null, queue, 1, track, true, 42000, BufferProfile.DATA_SAVER, 1234));
+
+        SessionStore.Session session = awaitSession(file);
+        assertNull(session.stream);
+        assertEquals(3, session.queue.size());
+        for (int i = 0; i < queue.size(); i++) {
+            assertEquals(queue.get(i).getURL(), session.queue.get(i).getURL());
+        }
+        assertEquals(1, session.queueIndex);
+        assertEquals(track, session.track);
+        assertTrue(session.resume);
+        assertEquals(42000, session.positionMs);
+        assertEquals(BufferProfile.DATA_SAVER, session.bufferProfile);
+        assertEquals(1234, session.savedAt);
+        assertTrue(session.hasMedia());
+    }
+
+    @Test
+    public void keepsALiveStream() throws Exception {
+        File file = new File(mFolder.getRoot(), "session.bin");
+        Stream stream = new Stream("Station", "Description", "STATION", "STATION_MP3");
+        write(file, new SessionStore.Session(stream, Collections.<OnDemandStream>emptyList(), -1, null, false, 0, null, 1234));
+
+        SessionStore.Session session = awaitSession(file);
+        assertEquals("STATION_MP3", session.stream.getTritonMount());
+        assertEquals("Station", session.stream.getTitle());
+        assertTrue(session.queue.isEmpty());
+        assertEquals(-1, session.queueIndex);
+        assertNull(session.track);
+        assertFalse(session.resume);
+        assertTrue(session.hasMedia());
+    }
+
+    @Test
+    public void ignoresAnOlderVersion() throws Exception {
+        File file = new File(mFolder.getRoot(), "session.bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(0x54535331);
+        out.writeInt(1);
+        out.close();
+
+        SessionStore store = new SessionStore(file);
+        assertNull(store.load());
+        store.shutdown();
+    }
+
+    private static void write(File file, SessionStore.Session session) {
+        SessionStore store = new SessionStore(file);
+        store.write(session);
+        store.shutdown();
+    }
+
+    /**
+     * @return the session once the background write reached the disk
+     */
+    private static SessionStore.Session awaitSession(File file) throws InterruptedException {
+        for (long waited = 0; waited < TIMEOUT_MS; waited += 10) {
+            SessionStore store = new SessionStore(file);
+            SessionStore.Session session = store.load();
+            store.shutdown();
+            if (session != null) return session;
+            Thread.sleep(10);
+        }
+        throw new AssertionError("session not written");
+    }
+}
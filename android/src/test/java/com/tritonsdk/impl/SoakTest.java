@@ -0,0 +1,184 @@
+package com.tritonsdk.impl;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Looper;
+
+import com.tritondigital.player.TritonPlayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Zaps PlayerService between {@link FakePlayerEngine} stations for hours of simulated time, with a
+ * standby prewarmed on every other zap. A leak shows up as engines that stay reachable after their
+ * release, or heap and thread counts that keep climbing instead of settling.
+ * <p>
+ * The simulated time is {@value #DEFAULT_DURATION_MINUTES} minutes, {@value #CI_DURATION_MINUTES}
+ * when the CI environment variable is set, or what the {@code soak.minutes} system property says
+ * ({@code ./gradlew test -PsoakMinutes=30}).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class SoakTest {
+
+    private static final int STATIONS = 8;
+    private static final int TRACKS_PER_STATION = 20;
+    private static final long CONNECT_MS = 50;
+    private static final long CUE_INTERVAL_MS = 100;
+    private static final long ZAP_INTERVAL_MS = 2000;
+    private static final int DEFAULT_DURATION_MINUTES = 4 * 60;
+    private static final int CI_DURATION_MINUTES = 15;
+    private static final long WARMUP_MS = 5 * 60 * 1000;
+    private static final long MAX_HEAP_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    private final List<WeakReference<FakePlayerEngine>> mEngines = new ArrayList<>();
+    private final List<Stream> mStations = new ArrayList<>(STATIONS);
+
+    private PlayerEngine.Factory mOriginalFactory;
+    private long mOriginalDebounce;
+    private ServiceController<PlayerService> mController;
+    private PlayerService mService;
+    private Looper mLooper;
+    private int mZaps;
+    private int mTracks;
+
+    @Before
+    public void setUp() {
+        mOriginalFactory = PlayerService.ENGINE_FACTORY;
+        mOriginalDebounce = PlayerService.ZAP_DEBOUNCE_MS;
+        final FakePlayerEngine.Script script = FakePlayerEngine.Script.station(CONNECT_MS, CUE_INTERVAL_MS, TRACKS_PER_STATION);
+        PlayerService.ENGINE_FACTORY = new PlayerEngine.Factory() {
+            @Override
+            public PlayerEngine create(Context context, Bundle settings) {
+                FakePlayerEngine engine = new FakePlayerEngine(script, settings);
+                mEngines.add(new WeakReference<>(engine));
+                return engine;
+            }
+        };
+        // every zap should connect, a debounce would drop most of them
+        PlayerService.ZAP_DEBOUNCE_MS = 0;
+        for (int i = 1; i <= STATIONS; i++) {
+            mStations.add(new Stream("Soak " + i, "", "SOAK" + i, "SOAK" + i));
+        }
+
+        mController = Robolectric.buildService(PlayerService.class).create();
+        mService = mController.get();
+        mLooper = mService.getPlaybackLooper();
+        mService.addListener(new PlayerService.OnPlayerEventListener() {
+            @Override
+            public void onStreamChanged(Stream stream) {
+            }
+
+            @Override
+            public void onTrackChanged(Track track) {
+                if (track != null) mTracks++;
+            }
+
+            @Override
+            public void onStateChanged(int state) {
+            }
+
+            @Override
+            public void onQueueIndexChanged(int index) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mController.destroy();
+        PlayerService.ENGINE_FACTORY = mOriginalFactory;
+        PlayerService.ZAP_DEBOUNCE_MS = mOriginalDebounce;
+    }
+
+    @Test
+    public void zapForHours() {
+        long durationMs = durationMinutes() * 60 * 1000L;
+        assertTrue("soak shorter than its warmup", durationMs > WARMUP_MS);
+        zapFor(WARMUP_MS);
+        long heapStart = usedHeap();
+        int threadsStart = Thread.activeCount();
+
+        zapFor(durationMs - WARMUP_MS);
+        long heapEnd = usedHeap();
+        int threadsEnd = Thread.activeCount();
+        new BenchmarkReport(SoakTest.class, "zap for hours")
+                .put("minutes", durationMs / 60 / 1000)
+                .put("zaps", mZaps)
+                .put("tracks", mTracks)
+                .put("engines", mEngines.size())
+                .put("heapStartBytes", heapStart)
+                .put("heapEndBytes", heapEnd)
+                .put("threadsStart", threadsStart)
+                .put("threadsEnd", threadsEnd)
+                .write();
+
+        assertEquals(durationMs / ZAP_INTERVAL_MS, mZaps);
+        assertTrue(mTracks > mZaps);
+        assertEquals(TritonPlayer.STATE_PLAYING, mService.getState());
+        // every odd zap plays the standby the zap before prewarmed, so there is one engine per zap
+        assertEquals(mZaps, mEngines.size());
+
+        // the current player and the standbys, every other engine must have been let go
+        int reachable = 0;
+        for (WeakReference<FakePlayerEngine> engine : mEngines) {
+            if (engine.get() != null) reachable++;
+        }
+        assertTrue(reachable + " of " + mEngines.size() + " engines still reachable", reachable <= 1 + PlayerService.STANDBY_POOL_SIZE);
+        assertTrue("threads " + threadsStart + " -> " + threadsEnd, threadsEnd <= threadsStart);
+        assertTrue("retained heap " + heapStart + " -> " + heapEnd + " bytes", heapEnd - heapStart < MAX_HEAP_GROWTH_BYTES);
+    }
+
+    private static long durationMinutes() {
+        String minutes = System.getProperty("soak.minutes");
+        if (minutes != null && !minutes.isEmpty()) return Long.parseLong(minutes);
+        return System.getenv("CI") != null ? CI_DURATION_MINUTES : DEFAULT_DURATION_MINUTES;
+    }
+
+    private void zapFor(long durationMs) {
+        for (long elapsed = 0; elapsed < durationMs; elapsed += ZAP_INTERVAL_MS) {
+            int zap = mZaps++;
+            mService.play(mStations.get(zap % STATIONS));
+            // as when the app hints the neighbouring station
+            if (zap % 2 == 0) {
+                mService.prewarm(mStations.get((zap + 1) % STATIONS));
+            }
+            shadowOf(mLooper).idle();
+            for (long step = 0; step < ZAP_INTERVAL_MS; step += CONNECT_MS) {
+                ShadowSystemClock.advanceBy(Duration.ofMillis(CONNECT_MS));
+                shadowOf(mLooper).idle();
+            }
+        }
+    }
+
+    /**
+     * @return the heap in use after a collection, so two samples compare what is actually retained
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
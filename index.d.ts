@@ -1,23 +1,122 @@
 declare module 'react-native-triton-player' {
+  export type BufferProfile = 'lowLatency' | 'balanced' | 'dataSaver';
+
   //export function configure({brand});
 
-  export function play(tritonName, tritonMount);
+  export function play(tritonName, tritonMount, bufferProfile?: BufferProfile);
+
+  export function setStations(stations: {
+    title?: string,
+    description?: string,
+    tritonName: string,
+    tritonMount: string,
+    active?: boolean,
+  }[]);
+
+  export function playStation(tritonMount: string, bufferProfile?: BufferProfile);
+
+  export function prewarm(tritonName, tritonMount);
 
   export function setNotificationStatus(status);
 
-  export function playOnDemandStream(trackURL);
+  export function playOnDemandStream(trackURL, bufferProfile?: BufferProfile);
+
+  export function setQueue(trackURLs: string[], startIndex?: number, bufferProfile?: BufferProfile);
+
+  export function skipNext();
+
+  export function skipPrevious();
+
+  export function prefetchOnDemand(url: string, bytes: number);
+
+  export function seekTo(positionMs: number);
+
+  /**
+   * Position and duration in ms of the on-demand item, -1 for live streams. With timeShift configured,
+   * timeShifted tells whether a paused live stream is recorded or played from its recording, and
+   * behindLive how many ms that is behind the live stream. The recording holds only the audio: no
+   * track changes arrive while playing from it, the track stays the one from before the pause.
+   */
+  export function getPosition(): Promise<{position: number, duration: number, seekable: boolean, timeShifted: boolean, behindLive: number}>;
+
+  /**
+   * Leaves the time-shift recording for the live stream, its track changes start again.
+   */
+  export function jumpToLive();
 
   export function pause();
 
   export function unPause();
 
+  export function getRecentTracks(tritonMount?: string): Promise<{artist: string, title: string, duration: number, playedAt: number}[]>;
+
+  /**
+   * Milliseconds from the last play call to the player connecting, -1 before the first one. Includes the
+   * zapDebounceMs wait for stations; plays served by an already connected player are not measured.
+   */
+  export function getTimeToConnecting(): Promise<number>;
+
+  export interface PlaybackHistogram {
+    bounds: number[];
+    counts: number[];
+    count: number;
+    sum: number;
+    max: number;
+  }
+
+  export interface PlaybackMetrics {
+    plays: number;
+    reusedPlays: number;
+    rebuffers: number;
+    errors: number;
+    reconnects: number;
+    reconnectFailures: number;
+    focusLosses: number;
+    reconnectsAvoided: number;
+    duplicateMetadata: number;
+    commandToConnecting: PlaybackHistogram;
+    connectingToPlaying: PlaybackHistogram;
+    timeToFirstAudio: PlaybackHistogram;
+    timeToFirstAudioReused: PlaybackHistogram;
+    rebufferTime: PlaybackHistogram;
+    reconnectTime: PlaybackHistogram;
+  }
+
+  export function getPlaybackMetrics(): Promise<{[tritonMount: string]: PlaybackMetrics}>;
+
+  export function getBufferProfileMetrics(): Promise<{[bufferProfile: string]: PlaybackMetrics}>;
+
+  export function getNotificationStats(): Promise<{notified: number, skipped: number}>;
+
   export function stop();
 
   export function quit();
 
   export function addStreamChangeListener(callback);
 
-  export function addTrackChangeListener(callback);
+  export function addTrackChangeListener(callback: (track: {
+    artist: string,
+    title: string,
+    duration: number,
+    isAd: boolean,
+    album: string | null,
+    coverUrl: string | null,
+    startedAt: number,
+  }) => void);
 
   export function addStateChangeListener(callback);
+
+  export function subscribeNowPlaying(tritonMounts: string[]);
+
+  export function addNowPlayingChangeListener(callback: (changes: {[tritonMount: string]: {
+    artist: string,
+    title: string,
+    duration: number,
+    isAd: boolean,
+    album: string | null,
+    coverUrl: string | null,
+    startedAt: number,
+  } | null}) => void);
+
+  export function addQueueIndexChangeListener(callback: (event: {index: number}) => void);
 }
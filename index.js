@@ -4,12 +4,101 @@ const NativeRNTritonPlayer = NativeModules.RNTritonPlayer;
 
 class RNTritonPlayer {
 
-  static configure({brand}) {
+  static configure({brand, reusePlayer, broadcastEvents, eventCoalescingWindow, autoReconnect, bufferProfile, zapDebounceMs, timeShift, timeShiftMaxMs, resumeAfterRestart}) {
     NativeRNTritonPlayer.configure(brand)
+    if (Platform.OS === 'android' && reusePlayer !== undefined) {
+      NativeRNTritonPlayer.setReusePlayer(reusePlayer);
+    }
+    if (Platform.OS === 'android' && broadcastEvents !== undefined) {
+      NativeRNTritonPlayer.setBroadcastEvents(broadcastEvents);
+    }
+    if (Platform.OS === 'android' && eventCoalescingWindow !== undefined) {
+      NativeRNTritonPlayer.setEventCoalescingWindow(eventCoalescingWindow);
+    }
+    if (Platform.OS === 'android' && autoReconnect !== undefined) {
+      NativeRNTritonPlayer.setAutoReconnect(autoReconnect);
+    }
+    if (Platform.OS === 'android' && bufferProfile !== undefined) {
+      NativeRNTritonPlayer.setBufferProfile(bufferProfile);
+    }
+    if (Platform.OS === 'android' && zapDebounceMs !== undefined) {
+      NativeRNTritonPlayer.setZapDebounce(zapDebounceMs);
+    }
+    if (Platform.OS === 'android' && timeShift !== undefined) {
+      NativeRNTritonPlayer.setTimeShift(timeShift, timeShiftMaxMs || 0);
+    }
+    if (Platform.OS === 'android' && resumeAfterRestart !== undefined) {
+      NativeRNTritonPlayer.setResumeAfterRestart(resumeAfterRestart);
+    }
   }
 
-	static play(tritonName, tritonMount) {
-		NativeRNTritonPlayer.play(tritonName, tritonMount);
+	static play(tritonName, tritonMount, bufferProfile) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.play(tritonName, tritonMount, bufferProfile || null);
+		} else {
+			NativeRNTritonPlayer.play(tritonName, tritonMount);
+		}
+	}
+
+	static setStations(stations) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.setStations(stations);
+		}
+	}
+
+	static playStation(tritonMount, bufferProfile) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.playStation(tritonMount, bufferProfile || null);
+		}
+	}
+
+	static setQueue(trackURLs, startIndex = 0, bufferProfile) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.setQueue(trackURLs, startIndex, bufferProfile || null);
+		}
+	}
+
+	static skipNext() {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.skipNext();
+		}
+	}
+
+	static skipPrevious() {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.skipPrevious();
+		}
+	}
+
+	static prewarm(tritonName, tritonMount) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.prewarm(tritonName, tritonMount);
+		}
+	}
+
+	static seekTo(positionMs) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.seekTo(positionMs);
+		}
+	}
+
+	static getPosition() {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve({position: -1, duration: -1, seekable: false, timeShifted: false, behindLive: 0});
+		}
+		return NativeRNTritonPlayer.getPosition();
+	}
+
+	static jumpToLive() {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.jumpToLive();
+		}
+	}
+
+	static prefetchOnDemand(url, bytes) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.prefetchOnDemand(url, bytes);
+		}
 	}
 
 	static pause() {
@@ -25,8 +114,47 @@ class RNTritonPlayer {
 	}
 
 
-	static playOnDemandStream(trackURL) {
-		NativeRNTritonPlayer.playOnDemandStream(trackURL);
+	static playOnDemandStream(trackURL, bufferProfile) {
+		if (Platform.OS === 'android') {
+			NativeRNTritonPlayer.playOnDemandStream(trackURL, bufferProfile || null);
+		} else {
+			NativeRNTritonPlayer.playOnDemandStream(trackURL);
+		}
+	}
+
+	static getRecentTracks(tritonMount) {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve([]);
+		}
+		return NativeRNTritonPlayer.getRecentTracks(tritonMount || null);
+	}
+
+	static getTimeToConnecting() {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve(-1);
+		}
+		return NativeRNTritonPlayer.getTimeToConnecting();
+	}
+
+	static getPlaybackMetrics() {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve({});
+		}
+		return NativeRNTritonPlayer.getPlaybackMetrics();
+	}
+
+	static getBufferProfileMetrics() {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve({});
+		}
+		return NativeRNTritonPlayer.getBufferProfileMetrics();
+	}
+
+	static getNotificationStats() {
+		if (Platform.OS !== 'android') {
+			return Promise.resolve({notified: 0, skipped: 0});
+		}
+		return NativeRNTritonPlayer.getNotificationStats();
 	}
 
 	static stop() {
@@ -55,6 +183,24 @@ class RNTritonPlayer {
     }
   }
 
+  static addQueueIndexChangeListener(callback) {
+    if (Platform.OS === 'android') {
+      DeviceEventEmitter.addListener('queueIndexChanged', callback);
+    }
+  }
+
+  static subscribeNowPlaying(tritonMounts) {
+    if (Platform.OS === 'android') {
+      NativeRNTritonPlayer.subscribeNowPlaying(tritonMounts || []);
+    }
+  }
+
+  static addNowPlayingChangeListener(callback) {
+    if (Platform.OS === 'android') {
+      DeviceEventEmitter.addListener('nowPlayingChanged', callback);
+    }
+  }
+
   static addStateChangeListener(callback) {
     if (Platform.OS === 'ios') {
       const tritonEmitter = new NativeEventEmitter(NativeRNTritonPlayer);